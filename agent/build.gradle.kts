@@ -0,0 +1,37 @@
+plugins {
+    id("java")
+}
+
+group = "hsb.compile"
+version = "1.0"
+
+repositories {
+    mavenCentral()
+}
+
+// 运行在springboot项目里的部分：上报web端口、替换devtools的FileSystemWatcher、HotSwapAgent。
+// 打成一个jar放进插件，启动项目时同时作为 -javaagent 和classpath第一项
+dependencies {
+    compileOnly("org.springframework.boot:spring-boot-autoconfigure:3.2.0")
+    compileOnly("org.springframework.boot:spring-boot-devtools:3.2.0")
+    compileOnly("org.slf4j:slf4j-api:2.0.9")
+}
+
+tasks {
+    withType<JavaCompile> {
+        sourceCompatibility = "17"
+        targetCompatibility = "17"
+        options.encoding = "UTF-8"
+    }
+
+    jar {
+        archiveFileName.set("compile-listener-agent.jar")
+        manifest {
+            attributes(
+                "Premain-Class" to "hsb.compile.agent.HotSwapAgent",
+                "Agent-Class" to "hsb.compile.agent.HotSwapAgent",
+                "Can-Redefine-Classes" to "true"
+            )
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package hsb.compile.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 通过 -javaagent 加载，保存 Instrumentation。idea判断只修改了方法体时，FileSystemWatcher 调用 {@link #redefine}
+ * 直接替换已经加载的class，不用重启整个spring上下文。jvm不允许修改结构，替换失败时返回false，由idea改为重启。
+ * <p>
+ * jar的MANIFEST需要 Premain-Class、Agent-Class 和 Can-Redefine-Classes: true
+ */
+public final class HotSwapAgent {
+
+    private static volatile Instrumentation instrumentation;
+
+    private HotSwapAgent() {
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        instrumentation = inst;
+    }
+
+    public static void agentmain(String args, Instrumentation inst) {
+        instrumentation = inst;
+    }
+
+    public static boolean isAvailable() {
+        Instrumentation inst = instrumentation;
+        return inst != null && inst.isRedefineClassesSupported();
+    }
+
+    /**
+     * 替换已经加载的class，还没有加载的会在加载时读取新的class文件，不需要处理。
+     * devtools重启过的话旧的类加载器在回收前还有同名的class，旧的class可能和新文件结构不同，
+     * 放在一起替换会让整批失败，所以只替换 liveLoader 和它的父加载器定义的class
+     *
+     * @param liveLoader 当前spring上下文的类加载器，null表示替换所有同名的class
+     * @return 全部替换成功
+     */
+    public static boolean redefine(List<String> classNames, List<String> paths, ClassLoader liveLoader) {
+        Instrumentation inst = instrumentation;
+        if (inst == null || !inst.isRedefineClassesSupported()) {
+            return false;
+        }
+        Map<String, String> pathByName = new HashMap<>();
+        for (int i = 0; i < classNames.size(); i++) {
+            pathByName.put(classNames.get(i), paths.get(i));
+        }
+        Set<ClassLoader> visible = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ClassLoader loader = liveLoader; loader != null; loader = loader.getParent()) {
+            visible.add(loader);
+        }
+        try {
+            Map<String, byte[]> bytes = new HashMap<>();
+            List<ClassDefinition> definitions = new ArrayList<>();
+            for (Class<?> loaded : inst.getAllLoadedClasses()) {
+                String path = pathByName.get(loaded.getName());
+                if (path == null || !inst.isModifiableClass(loaded)) {
+                    continue;
+                }
+                if (liveLoader != null && !visible.contains(loaded.getClassLoader())) {
+                    //旧的RestartClassLoader里的，等待回收
+                    continue;
+                }
+                byte[] classFile = bytes.get(path);
+                if (classFile == null) {
+                    classFile = Files.readAllBytes(Path.of(path));
+                    bytes.put(path, classFile);
+                }
+                definitions.add(new ClassDefinition(loaded, classFile));
+            }
+            if (!definitions.isEmpty()) {
+                //一次替换全部，要么都成功要么都不变
+                inst.redefineClasses(definitions.toArray(new ClassDefinition[0]));
+            }
+            return true;
+        } catch (IOException | ClassNotFoundException | UnmodifiableClassException | RuntimeException | LinkageError e) {
+            //UnsupportedOperationException: 修改了类结构；ClassFormatError、VerifyError等: class文件有问题
+            System.err.println("替换class失败，需要重启: " + e);
+            return false;
+        }
+    }
+}
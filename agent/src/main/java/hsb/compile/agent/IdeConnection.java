@@ -0,0 +1,54 @@
+package hsb.compile.agent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 连接启动本项目的idea，地址由插件通过系统属性 hsb.compile.endpoint 传入，
+ * 逗号分隔，格式 unix:///路径 或 tcp://127.0.0.1:端口，按顺序尝试，unix domain socket不可用时使用tcp。
+ * 没有传入的时候使用旧的固定端口60012
+ */
+public final class IdeConnection {
+
+    public static final String ENDPOINT_PROPERTY = "hsb.compile.endpoint";
+
+    //和插件里 ControlChannels 的常量一致
+    public static final int TYPE_REGISTER = 1;
+    public static final int TYPE_PORT = 2;
+    public static final int TYPE_REGISTER_WITH_CAPABILITIES = 3;
+    public static final int TYPE_STARTUP = 4;
+    public static final int TYPE_STATIC_RESOURCES = 5;
+    public static final int CAPABILITY_REDEFINE = 1;
+    public static final int COMMAND_REDEFINE = 1;
+
+    private IdeConnection() {
+    }
+
+    public static SocketChannel connect() throws IOException {
+        String endpoints = System.getProperty(ENDPOINT_PROPERTY);
+        if (endpoints == null) {
+            return SocketChannel.open(new InetSocketAddress("127.0.0.1", 60012));
+        }
+        IOException last = null;
+        for (String endpoint : endpoints.split(",")) {
+            try {
+                if (endpoint.startsWith("unix://")) {
+                    return SocketChannel.open(UnixDomainSocketAddress.of(endpoint.substring("unix://".length())));
+                }
+                String address = endpoint.substring("tcp://".length());
+                int index = address.lastIndexOf(':');
+                return SocketChannel.open(new InetSocketAddress(address.substring(0, index), Integer.parseInt(address.substring(index + 1))));
+            } catch (IOException e) {
+                last = e;
+            } catch (UnsupportedOperationException e) {
+                last = new IOException(e);
+            }
+        }
+        throw last != null ? last : new IOException("没有可用的idea地址");
+    }
+}
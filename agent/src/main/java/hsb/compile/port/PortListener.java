@@ -0,0 +1,126 @@
+package hsb.compile.port;
+
+import hsb.compile.agent.IdeConnection;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2024/3/3 11:16
+ * <p>
+ * web服务启动后把进程pid和端口发送给idea插件，插件为这个端口开启代理。
+ * 主web服务同时发送静态资源的配置，代理按项目实际的context-path、静态资源位置直接返回静态资源
+ */
+public class PortListener implements ApplicationListener<WebServerInitializedEvent> {
+
+    private static final String[] DEFAULT_STATIC_LOCATIONS = {
+            "classpath:/META-INF/resources/", "classpath:/resources/", "classpath:/static/", "classpath:/public/"
+    };
+    //springboot自动配置的过滤器，不影响静态资源的响应内容
+    private static final Set<String> FRAMEWORK_FILTERS = Set.of("characterEncodingFilter", "formContentFilter",
+            "requestContextFilter", "hiddenHttpMethodFilter", "webMvcMetricsFilter", "webMvcObservationFilter");
+    private static final String[] FILTER_TYPES = {
+            "jakarta.servlet.Filter", "javax.servlet.Filter", "org.springframework.boot.web.servlet.AbstractFilterRegistrationBean"
+    };
+
+    @Override
+    public void onApplicationEvent(WebServerInitializedEvent event) {
+        int port = event.getWebServer().getPort();
+        System.out.println("web端口:" + port);
+        long pid = ProcessHandle.current().pid();
+        System.out.println(pid);
+        sendPortInfo((int) pid, port);
+        //管理端口的namespace是management
+        WebServerApplicationContext context = event.getApplicationContext();
+        if (context.getServerNamespace() == null) {
+            sendStaticResources((int) pid, context);
+        }
+    }
+
+    public void sendPortInfo(int pid, int port) {
+        try (SocketChannel socket = IdeConnection.connect()) {
+            ByteBuffer buffer = ByteBuffer.allocate(12);
+            buffer.putInt(IdeConnection.TYPE_PORT).putInt(pid).putInt(port).flip();
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 发送context-path、spring.mvc.static-path-pattern、静态资源位置，以及项目是否有自己的过滤器（比如spring security）。
+     * 关闭了静态资源映射时位置为空
+     */
+    private void sendStaticResources(int pid, WebServerApplicationContext context) {
+        Environment environment = context.getEnvironment();
+        Binder binder = Binder.get(environment);
+        String contextPath = environment.getProperty("server.servlet.context-path", "");
+        String pathPattern = environment.getProperty("spring.mvc.static-path-pattern", "/**");
+        //springboot 2.4之前是spring.resources
+        boolean addMappings = binder.bind("spring.web.resources.add-mappings", Boolean.class)
+                .orElseGet(() -> binder.bind("spring.resources.add-mappings", Boolean.class).orElse(true));
+        String[] locations = binder.bind("spring.web.resources.static-locations", Bindable.of(String[].class))
+                .orElseGet(() -> binder.bind("spring.resources.static-locations", Bindable.of(String[].class)).orElse(DEFAULT_STATIC_LOCATIONS));
+        List<String> sent = addMappings ? List.of(locations) : List.of();
+        try (SocketChannel socket = IdeConnection.connect()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(IdeConnection.TYPE_STATIC_RESOURCES);
+            out.writeInt(pid);
+            writeString(out, contextPath);
+            writeString(out, pathPattern);
+            out.writeInt(hasOwnFilters(context) ? 1 : 0);
+            out.writeInt(sent.size());
+            for (String location : sent) {
+                writeString(out, location);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+        } catch (Exception e) {
+            System.err.println("静态资源配置发送失败: " + e);
+        }
+    }
+
+    /**
+     * 除了springboot自动配置的过滤器之外还有别的过滤器，代理直接返回静态资源会绕过它们
+     */
+    private static boolean hasOwnFilters(WebServerApplicationContext context) {
+        ClassLoader classLoader = context.getClassLoader();
+        for (String typeName : FILTER_TYPES) {
+            if (!ClassUtils.isPresent(typeName, classLoader)) {
+                continue;
+            }
+            Class<?> type = ClassUtils.resolveClassName(typeName, classLoader);
+            for (String name : context.getBeanNamesForType(type, true, false)) {
+                if (!FRAMEWORK_FILTERS.contains(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,19 @@
+package hsb.compile.port;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author hsb
+ * @date 2024/3/3 11:16
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class PortListenerAutoConfiguration {
+
+    @Bean
+    public PortListener applicationReadyEventListener() {
+        return new PortListener();
+    }
+}
@@ -0,0 +1,53 @@
+package hsb.compile.port;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
+
+import java.time.Duration;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * spring.factories里注册的是这个类，对所有项目生效。springboot 2.4之前没有ApplicationStartup，
+ * 直接注册 {@link StartupStepReporter} 会在创建监听器时类加载失败，项目启动不了。
+ * 这里只引用所有版本都有的类，检查到BufferingApplicationStartup存在时才创建StartupStepReporter。
+ * 启动完成的回调：2.6开始是 ready(context, timeTaken)，2.4、2.5只有 running(context)，耗时自己计算
+ */
+public class StartupReportRunListener implements SpringApplicationRunListener {
+
+    private static final String BUFFERING_APPLICATION_STARTUP =
+            "org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup";
+
+    //类型用接口，加载这个类时不会去加载StartupStepReporter
+    private final SpringApplicationRunListener reporter;
+    //监听器在SpringApplication.run开始时创建
+    private final long startNanos = System.nanoTime();
+
+    public StartupReportRunListener(SpringApplication application, String[] args) {
+        if (ClassUtils.isPresent(BUFFERING_APPLICATION_STARTUP, application.getClassLoader())) {
+            reporter = new StartupStepReporter(application, args);
+        } else {
+            reporter = null;
+        }
+    }
+
+    @Override
+    public void ready(ConfigurableApplicationContext context, Duration timeTaken) {
+        if (reporter != null) {
+            reporter.ready(context, timeTaken);
+        }
+    }
+
+    /**
+     * springboot 2.4、2.5启动完成时调用；2.6以后默认的ready会调用它，这里重写了ready所以不会重复上报。
+     * 3.0删除了这个方法，不能加@Override
+     */
+    public void running(ConfigurableApplicationContext context) {
+        if (reporter != null) {
+            reporter.ready(context, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+}
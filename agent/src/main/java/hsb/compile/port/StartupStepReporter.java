@@ -0,0 +1,115 @@
+package hsb.compile.port;
+
+import hsb.compile.agent.IdeConnection;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 每次启动（包括devtools重启，会重新执行main方法）都给SpringApplication装上BufferingApplicationStartup，
+ * 启动完成后把各个步骤的耗时发送给idea，idea汇总多次重启，找出拖慢重启的bean。
+ * 耗时是步骤自身的时间，去掉了嵌套的子步骤（比如依赖的bean的创建），只发送最慢的一部分。
+ * 项目自己设置了ApplicationStartup时不替换。
+ * 需要springboot 2.4以上，由 {@link StartupReportRunListener} 检查版本后创建
+ */
+public class StartupStepReporter implements SpringApplicationRunListener {
+
+    private static final int CAPACITY = 20_000;
+    private static final int MAX_STEPS = 200;
+    //这些tag能区分同名步骤，并且多次重启之间是稳定的
+    private static final Set<String> LABEL_TAGS = Set.of("beanName", "postProcessor", "listener");
+
+    private final BufferingApplicationStartup startup;
+
+    public StartupStepReporter(SpringApplication application, String[] args) {
+        if (application.getApplicationStartup() == ApplicationStartup.DEFAULT) {
+            startup = new BufferingApplicationStartup(CAPACITY);
+            application.setApplicationStartup(startup);
+        } else {
+            startup = null;
+        }
+    }
+
+    @Override
+    public void ready(ConfigurableApplicationContext context, Duration timeTaken) {
+        if (startup == null) {
+            return;
+        }
+        List<StartupTimeline.TimelineEvent> events = startup.drainBufferedTimeline().getEvents();
+        Thread thread = new Thread(() -> send(events, timeTaken), "startup-step-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void send(List<StartupTimeline.TimelineEvent> events, Duration timeTaken) {
+        Map<Long, Long> childNanos = new HashMap<>();
+        for (StartupTimeline.TimelineEvent event : events) {
+            Long parentId = event.getStartupStep().getParentId();
+            if (parentId != null) {
+                childNanos.merge(parentId, event.getDuration().toNanos(), Long::sum);
+            }
+        }
+        List<String> labels = new ArrayList<>(events.size());
+        List<Long> selfNanos = new ArrayList<>(events.size());
+        List<Integer> order = new ArrayList<>(events.size());
+        for (StartupTimeline.TimelineEvent event : events) {
+            StartupStep step = event.getStartupStep();
+            long self = event.getDuration().toNanos() - childNanos.getOrDefault(step.getId(), 0L);
+            order.add(labels.size());
+            labels.add(label(step));
+            selfNanos.add(Math.max(0, self));
+        }
+        order.sort((a, b) -> Long.compare(selfNanos.get(b), selfNanos.get(a)));
+        int count = Math.min(MAX_STEPS, order.size());
+        try (SocketChannel socket = IdeConnection.connect()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * count + 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(IdeConnection.TYPE_STARTUP);
+            out.writeInt((int) ProcessHandle.current().pid());
+            out.writeInt((int) timeTaken.toMillis());
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                int index = order.get(i);
+                byte[] label = labels.get(index).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(label.length);
+                out.write(label);
+                out.writeLong(selfNanos.get(index));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("启动步骤发送失败: " + e);
+        }
+    }
+
+    private static String label(StartupStep step) {
+        for (StartupStep.Tag tag : step.getTags()) {
+            if (LABEL_TAGS.contains(tag.getKey())) {
+                return step.getName() + " " + tag.getValue();
+            }
+        }
+        return step.getName();
+    }
+}
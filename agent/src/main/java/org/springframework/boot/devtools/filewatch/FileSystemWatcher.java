@@ -16,13 +16,18 @@
 
 package org.springframework.boot.devtools.filewatch;
 
-import com.ruoyi.RuoYiApplication;
+import hsb.compile.agent.HotSwapAgent;
+import hsb.compile.agent.IdeConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -48,6 +53,7 @@ public class FileSystemWatcher {
 
     private static final Duration DEFAULT_QUIET_PERIOD = Duration.ofMillis(400);
 
+
     private final List<FileChangeListener> listeners = new ArrayList<>();
 
     private final boolean daemon;
@@ -230,7 +236,7 @@ public class FileSystemWatcher {
     }
 
     private static final class Watcher implements Runnable {
-        Logger log = LoggerFactory.getLogger(RuoYiApplication.class);
+        Logger log = LoggerFactory.getLogger(FileSystemWatcher.class);
         private final AtomicInteger remainingScans;
 
         private final List<FileChangeListener> listeners;
@@ -276,20 +282,83 @@ public class FileSystemWatcher {
 //			}
 //		}
 
-        private void checkRead(InputStream in) throws IOException, InterruptedException {
-          //  in.read(new byte[1]);
-            while (!Thread.currentThread().isInterrupted()&&!isStop()){
-                if (in.available()>0){
-                    in.read(new byte[1]);
-                    break;
-                }else {
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        throw e;
-                    }
+        /**
+         * 等待idea发送编译完成事件，用selector等待而不是轮询，事件到达后立刻返回
+         *
+         * @return 接收到的命令，停止监听时返回-1
+         */
+        private int checkRead(SocketChannel channel, Selector selector) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            return readFully(channel, selector, buffer) ? buffer.get(0) : -1;
+        }
+
+        /**
+         * 读满buffer，停止监听时返回false
+         */
+        private boolean readFully(SocketChannel channel, Selector selector, ByteBuffer buffer) throws IOException {
+            while (!Thread.currentThread().isInterrupted() && !isStop()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("idea断开了连接");
+                }
+                if (!buffer.hasRemaining()) {
+                    return true;
+                }
+                //超时是为了及时检查停止标记
+                if (selector.select(50) > 0) {
+                    selector.selectedKeys().clear();
                 }
             }
+            return false;
+        }
+
+        private String readString(SocketChannel channel, Selector selector) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            if (!readFully(channel, selector, length)) {
+                throw new InterruptedIOException();
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+            if (!readFully(channel, selector, bytes)) {
+                throw new InterruptedIOException();
+            }
+            return new String(bytes.array(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * idea判断只修改了方法体，直接替换class，回复一个字节，1表示成功。
+         * 成功后更新快照，之后的重启通知不会因为这些class再次重启
+         */
+        private void redefine(SocketChannel channel, Selector selector) throws IOException {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            if (!readFully(channel, selector, count)) {
+                throw new InterruptedIOException();
+            }
+            List<String> classNames = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            for (int i = 0; i < count.getInt(0); i++) {
+                classNames.add(readString(channel, selector));
+                paths.add(readString(channel, selector));
+            }
+            long start = System.nanoTime();
+            //监听线程在重启后的上下文里创建，上下文类加载器就是当前的RestartClassLoader
+            boolean redefined = HotSwapAgent.redefine(classNames, paths, Thread.currentThread().getContextClassLoader());
+            log.info("替换" + classNames.size() + "个class" + (redefined ? "成功" : "失败") + "，耗时"
+                    + (System.nanoTime() - start) / 1_000_000 + "ms");
+            if (redefined) {
+                this.directories = getCurrentSnapshots();
+            }
+            ByteBuffer reply = ByteBuffer.wrap(new byte[]{(byte) (redefined ? 1 : 0)});
+            while (reply.hasRemaining()) {
+                channel.write(reply);
+            }
+        }
+
+        private static boolean supportsRedefine() {
+            try {
+                return HotSwapAgent.isAvailable();
+            } catch (LinkageError e) {
+                //没有通过-javaagent加载
+                return false;
+            }
         }
 
         @Override
@@ -305,37 +374,53 @@ public class FileSystemWatcher {
 
             try {
                 log.info("监听开启，建立连接");
-                Socket socket = new Socket("127.0.0.1",60012);
+                SocketChannel socket = IdeConnection.connect();
 
                 log.info("监听开启，建立连接成功");
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-                writer.write("compile-listener");//todo idea创建项目时候的名称，也就是比如这个插件的项目名称就是compile-listener
-                writer.newLine();
-                writer.flush();
-
-                InputStream in = socket.getInputStream();
-
-                //read可以被中断，stopAfter方法里中断线程了
-                while (!isStop()){
-
-                    try {
-                        checkRead(in);
-                        log.info("接收到编译结束事件");
-                        Map<File, DirectorySnapshot> current = getCurrentSnapshots();
-                        if (isDifferent(this.directories, current)) {
-                            socket.close();
-                           // Thread.currentThread().isInterrupted();
-                          //  Thread.sleep(3000);
-                            updateSnapshots(current.values());
-                            break;
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
+                //注册编译完成通知，type 1 + 进程pid，加载了agent时 type 3 + 进程pid + 能力
+                ByteBuffer register = ByteBuffer.allocate(12);
+                if (supportsRedefine()) {
+                    register.putInt(IdeConnection.TYPE_REGISTER_WITH_CAPABILITIES).putInt((int) ProcessHandle.current().pid()).putInt(IdeConnection.CAPABILITY_REDEFINE);
+                } else {
+                    register.putInt(IdeConnection.TYPE_REGISTER).putInt((int) ProcessHandle.current().pid());
+                }
+                register.flip();
+                while (register.hasRemaining()) {
+                    socket.write(register);
+                }
 
+                socket.configureBlocking(false);
+                Selector selector = Selector.open();
+                socket.register(selector, SelectionKey.OP_READ);
 
+                //select可以被中断，stopAfter方法里中断线程了
+                while (!isStop() && !Thread.currentThread().isInterrupted()){
+                    int command = checkRead(socket, selector);
+                    if (command < 0) {
+                        break;
+                    }
+                    if (command == IdeConnection.COMMAND_REDEFINE) {
+                        redefine(socket, selector);
+                        continue;
+                    }
+                    log.info("接收到编译结束事件");
+                    Map<File, DirectorySnapshot> current = getCurrentSnapshots();
+                    boolean restart = isDifferent(this.directories, current);
+                    //告诉idea是否重启，idea据此决定等待项目重启还是直接放行等待的请求
+                    ByteBuffer reply = ByteBuffer.wrap(new byte[]{(byte) (restart ? 1 : 0)});
+                    while (reply.hasRemaining()) {
+                        socket.write(reply);
+                    }
+                    if (restart) {
+                        socket.close();
+                       // Thread.currentThread().isInterrupted();
+                      //  Thread.sleep(3000);
+                        updateSnapshots(current.values());
+                        break;
+                    }
                 }
 
+                selector.close();
                 socket.close();
             }  catch (IOException e) {
                 log.info("监听失败");
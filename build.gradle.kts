@@ -19,6 +19,19 @@ intellij {
     plugins.set(listOf("org.intellij.intelliLang", "com.intellij.java"))
 }
 
+// JMH基准测试，不依赖idea运行代理，运行: ./gradlew jmh -PjmhArgs="ForwardingProxyBenchmark"
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += output + compileClasspath
+    }
+    // 代理的浸泡测试复用基准测试里的echo后端
+    named("test") {
+        compileClasspath += getByName("jmh").output
+        runtimeClasspath += getByName("jmh").output
+    }
+}
+
 tasks {
     // Set the JVM compatibility versions
     withType<JavaCompile> {
@@ -29,6 +42,13 @@ tasks {
 //        kotlinOptions.jvmTarget = "17"
 //    }
 
+    // springboot项目端的agent打进插件的资源，运行时由 AgentJar 解压到按内容哈希命名的缓存目录
+    processResources {
+        from(project(":agent").tasks.named("jar")) {
+            into("agent")
+        }
+    }
+
     patchPluginXml {
         sinceBuild.set("222")
         untilBuild.set("999.*")
@@ -43,11 +63,33 @@ tasks {
     publishPlugin {
         token.set(System.getenv("PUBLISH_TOKEN"))
     }
+
+    register<JavaExec>("jmh") {
+        group = "benchmark"
+        description = "Runs the JMH benchmarks, extra JMH arguments can be passed with -PjmhArgs"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.openjdk.jmh.Main")
+        args = listOf("-prof", "gc") + (project.findProperty("jmhArgs")?.toString()?.split(" ") ?: emptyList())
+    }
+
+    // 热加载延迟回归测试，阈值等参数通过 -PsimArgs="--maxP99=5000 --clients=16" 传入，超过阈值任务失败
+    register<JavaExec>("hotReloadSimulation") {
+        group = "verification"
+        description = "Simulates a save/compile/restart cycle through the proxy and checks response time thresholds"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("hsb.compile.benchmark.HotReloadSimulator")
+        args = project.findProperty("simArgs")?.toString()?.split(" ") ?: emptyList()
+    }
 }
 dependencies{
 //    implementation("io.netty:netty-transport:4.1.86.Final")
     implementation("io.netty:netty-buffer:4.1.86.Final")
     implementation("io.netty:netty-codec:4.1.86.Final")
 
+    testImplementation("junit:junit:4.13.2")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+
 
 }
\ No newline at end of file
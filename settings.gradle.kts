@@ -5,4 +5,5 @@ pluginManagement {
     }
 }
 
-rootProject.name = "compile-listener"
\ No newline at end of file
+rootProject.name = "compile-listener"
+include("agent")
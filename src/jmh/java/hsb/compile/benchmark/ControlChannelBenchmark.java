@@ -0,0 +1,81 @@
+package hsb.compile.benchmark;
+
+import hsb.compile.service.ControlChannels;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 控制通道一次通知的往返耗时，对比unix domain socket和本地tcp
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ControlChannelBenchmark {
+
+    @Param({"unix", "tcp"})
+    public String transport;
+
+    private Path socketDir;
+    private ServerSocketChannel server;
+    private SocketChannel ide;
+    private SocketChannel app;
+    private final ByteBuffer notify = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer appBuffer = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer ack = ByteBuffer.allocateDirect(1);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if ("unix".equals(transport)) {
+            socketDir = Files.createTempDirectory("compile-listener-bench");
+            server = ControlChannels.bindUnix(socketDir.resolve("control.sock"));
+        } else {
+            server = ControlChannels.bindTcp();
+        }
+        app = ControlChannels.connect(ControlChannels.endpoint(server));
+        ide = server.accept();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        app.close();
+        ide.close();
+        server.close();
+        if (socketDir != null) {
+            Files.deleteIfExists(socketDir.resolve("control.sock"));
+            Files.deleteIfExists(socketDir);
+        }
+    }
+
+    /**
+     * idea发送编译完成通知，项目收到后回复一个字节
+     */
+    @Benchmark
+    public int notifyRoundTrip() throws IOException {
+        ControlChannels.writeFully(ide, notify.clear());
+        readOne(app, appBuffer.clear());
+        ControlChannels.writeFully(app, appBuffer.flip());
+        return readOne(ide, ack.clear());
+    }
+
+    private static int readOne(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("连接被关闭");
+            }
+        }
+        return buffer.get(0);
+    }
+}
@@ -0,0 +1,123 @@
+package hsb.compile.benchmark;
+
+import hsb.compile.springboot.SpringBootPortForwardingProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 代理转发的基准测试，后端是本地的echo服务。byteArrayCodec对比现在的ByteArrayDecoder管道和直接转发ByteBuf，
+ * 分配速率看 -prof gc 的 gc.alloc.rate.norm
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ForwardingProxyBenchmark {
+
+    @Param({"true", "false"})
+    public boolean byteArrayCodec;
+
+    private EchoBackend backend;
+    private SpringBootPortForwardingProxy proxy;
+    private final AtomicBoolean stop = new AtomicBoolean(false);
+    int proxyPort;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        backend = new EchoBackend();
+        int backendPort = backend.start();
+        proxyPort = EchoBackend.freePort();
+        proxy = new SpringBootPortForwardingProxy(proxyPort, "127.0.0.1", backendPort, new NoChangeCompileCoordinator(), stop);
+        proxy.setByteArrayCodec(byteArrayCodec);
+        proxy.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stop.set(true);
+        proxy.close();
+        backend.close();
+    }
+
+    /**
+     * 每个线程一个长连接，bytes是转发的字节数（往返都算），除以时间就是吞吐量
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Connection {
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private final byte[] small = new byte[128];
+        private final byte[] large = new byte[64 * 1024];
+        private final byte[] readBuffer = new byte[64 * 1024];
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void connect(ForwardingProxyBenchmark benchmark) throws IOException {
+            socket = new Socket("127.0.0.1", benchmark.proxyPort);
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        int exchange(byte[] data) throws IOException {
+            out.write(data);
+            out.flush();
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(readBuffer, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("连接被关闭");
+                }
+                read += n;
+            }
+            bytes += 2L * data.length;
+            return read;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int throughput(Connection connection) throws IOException {
+        return connection.exchange(connection.large);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int smallRequest(Connection connection) throws IOException {
+        return connection.exchange(connection.small);
+    }
+
+    /**
+     * 新建连接到收到第一个字节的耗时，包括代理和后端建立连接
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int connectLatency() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", proxyPort)) {
+            //直接RST关闭，避免大量TIME_WAIT
+            socket.setSoLinger(true, 0);
+            socket.getOutputStream().write(1);
+            return socket.getInputStream().read();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package hsb.compile.benchmark;
+
+import hsb.compile.springboot.SpringBootPortForwardingProxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 不依赖idea的热加载模拟：多个客户端持续通过真实的代理访问模拟后端，中途模拟保存文件，
+ * 代理触发编译、后端重启，统计整个过程中请求的响应时间。超过阈值时返回非0退出码。
+ * <p>
+ * 参数(--key=value)：clients 并发数，duration 总时长ms，saveAt 第几ms保存文件，compile 编译耗时ms，
+ * restart 重启耗时ms，maxP50 / maxP99 响应时间阈值ms，maxErrors 允许的失败请求数(-1不检查)
+ */
+public class HotReloadSimulator {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Long> options = parse(args);
+        int clients = options.get("clients").intValue();
+        long duration = options.get("duration");
+        long saveAt = options.get("saveAt");
+
+        int backendPort = EchoBackend.freePort();
+        int proxyPort = EchoBackend.freePort();
+        RestartingBackend backend = new RestartingBackend(backendPort, options.get("restart"));
+        backend.start();
+        SimulatedCompileCoordinator coordinator = new SimulatedCompileCoordinator(options.get("compile"), backend);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        SpringBootPortForwardingProxy proxy = new SpringBootPortForwardingProxy(proxyPort, "127.0.0.1", backendPort, coordinator, stop);
+        coordinator.setProxy(proxy);
+        proxy.run();
+
+        long[][] samples = new long[clients][];
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < clients; i++) {
+            int index = i;
+            executor.execute(() -> {
+                List<Long> latencies = new ArrayList<>();
+                while (System.nanoTime() < deadline) {
+                    long begin = System.nanoTime();
+                    try {
+                        request(proxyPort);
+                        latencies.add(System.nanoTime() - begin);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+                samples[index] = latencies.stream().mapToLong(Long::longValue).toArray();
+            });
+        }
+
+        Thread.sleep(saveAt);
+        coordinator.save();
+
+        executor.shutdown();
+        executor.awaitTermination(duration + 60_000, TimeUnit.MILLISECONDS);
+
+        stop.set(true);
+        proxy.close();
+        coordinator.close();
+        backend.close();
+
+        //awaitTermination之后所有客户端线程的结果都可见
+        long[] all = Arrays.stream(samples).filter(x -> x != null).flatMapToLong(Arrays::stream).sorted().toArray();
+        double p50 = percentileMillis(all, 0.50);
+        double p99 = percentileMillis(all, 0.99);
+        double max = all.length == 0 ? 0 : all[all.length - 1] / 1_000_000.0;
+        System.out.printf("requests=%d errors=%d restarts=%d p50=%.2fms p99=%.2fms max=%.2fms%n",
+                all.length, errors.get(), backend.getRestarts(), p50, p99, max);
+
+        List<String> failures = new ArrayList<>();
+        if (backend.getRestarts() == 0) {
+            failures.add("后端没有重启，热加载没有被触发");
+        }
+        if (p50 > options.get("maxP50")) {
+            failures.add("p50 " + p50 + "ms > " + options.get("maxP50") + "ms");
+        }
+        if (p99 > options.get("maxP99")) {
+            failures.add("p99 " + p99 + "ms > " + options.get("maxP99") + "ms");
+        }
+        if (options.get("maxErrors") >= 0 && errors.get() > options.get("maxErrors")) {
+            failures.add("errors " + errors.get() + " > " + options.get("maxErrors"));
+        }
+        if (!failures.isEmpty()) {
+            System.err.println("FAILED: " + String.join(", ", failures));
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+        System.exit(0);
+    }
+
+    /**
+     * 一次请求：新建连接，发送请求，读到后端关闭连接为止
+     */
+    private static void request(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(30_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[256];
+            int total = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                total += n;
+            }
+            if (total == 0) {
+                throw new IOException("没有收到响应");
+            }
+        }
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    private static Map<String, Long> parse(String[] args) {
+        Map<String, Long> options = new HashMap<>();
+        options.put("clients", 8L);
+        options.put("duration", 10_000L);
+        options.put("saveAt", 3_000L);
+        options.put("compile", 1_500L);
+        options.put("restart", 2_000L);
+        options.put("maxP50", 50L);
+        options.put("maxP99", 8_000L);
+        options.put("maxErrors", 0L);
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("参数格式 --key=value: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            if (!options.containsKey(key)) {
+                throw new IllegalArgumentException("未知参数: " + key);
+            }
+            options.put(key, Long.parseLong(arg.substring(arg.indexOf('=') + 1)));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,36 @@
+package hsb.compile.benchmark;
+
+import hsb.compile.TaskTimeLine;
+import hsb.compile.springboot.CompileCoordinator;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 始终没有文件修改，请求直接转发给后端
+ */
+public class NoChangeCompileCoordinator implements CompileCoordinator {
+
+    @Override
+    public int hasFileModify() {
+        return TaskTimeLine.NOT_CHANGE;
+    }
+
+    @Override
+    public void changeState(int newState) {
+    }
+
+    @Override
+    public long generation() {
+        return 0;
+    }
+
+    @Override
+    public void codeLive() {
+    }
+
+    @Override
+    public void make(Runnable afterCompile) {
+        afterCompile.run();
+    }
+}
@@ -0,0 +1,105 @@
+package hsb.compile.benchmark;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 模拟springboot项目：收到请求后返回一个固定的http响应并关闭连接。
+ * 重启时和devtools一样，关闭端口和所有连接，过一段时间后在同一个端口重新监听
+ */
+public class RestartingBackend {
+
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nOK")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final EventLoopGroup group = new NioEventLoopGroup(2);
+    private final ChannelGroup children = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final long restartMillis;
+    private final int port;
+    private volatile Channel serverChannel;
+    private volatile int restarts = 0;
+
+    public RestartingBackend(int port, long restartMillis) {
+        this.port = port;
+        this.restartMillis = restartMillis;
+    }
+
+    public synchronized void start() throws InterruptedException {
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(group)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        children.add(ch);
+                        ch.pipeline().addLast(new ResponseHandler());
+                    }
+                });
+        serverChannel = b.bind(port).sync().channel();
+    }
+
+    public void restartAsync() {
+        Thread thread = new Thread(() -> {
+            try {
+                synchronized (this) {
+                    serverChannel.close().sync();
+                    children.close().sync();
+                }
+                Thread.sleep(restartMillis);
+                start();
+                restarts++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "simulated-devtools-restart");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public void close() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        children.close().syncUninterruptibly();
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    static class ResponseHandler extends ChannelInboundHandlerAdapter {
+        private boolean responded = false;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            if (responded) {
+                return;
+            }
+            responded = true;
+            ByteBuf response = Unpooled.wrappedBuffer(RESPONSE);
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package hsb.compile.benchmark;
+
+import hsb.compile.FileModifyState;
+import hsb.compile.TaskTimeLine;
+import hsb.compile.springboot.CompileCoordinator;
+import hsb.compile.springboot.SpringBootPortForwardingProxy;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 模拟idea的文件保存和编译，用和 {@link TaskTimeLine} 同一份 {@link FileModifyState} 判断：最后一次保存晚于最后一次编译开始就需要编译。
+ * 编译完成后和插件一样，先让代理排空正在处理的请求，再通知后端重启，最后恢复等待的连接
+ */
+public class SimulatedCompileCoordinator implements CompileCoordinator {
+
+    private static final long DRAIN_TIMEOUT_MS = 3000;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "simulated-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long compileMillis;
+    private final RestartingBackend backend;
+    private SpringBootPortForwardingProxy proxy;
+
+    //模拟的文件都是保存后才算修改，没有未保存的文件
+    private final FileModifyState fileState = new FileModifyState();
+
+    public SimulatedCompileCoordinator(long compileMillis, RestartingBackend backend) {
+        this.compileMillis = compileMillis;
+        this.backend = backend;
+    }
+
+    public void setProxy(SpringBootPortForwardingProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * 模拟保存了一个文件
+     */
+    public void save() {
+        fileState.fileTreeChange();
+    }
+
+    @Override
+    public int hasFileModify() {
+        return fileState.hasFileModify(() -> false);
+    }
+
+    @Override
+    public void changeState(int newState) {
+        fileState.changeState(newState);
+    }
+
+    @Override
+    public long generation() {
+        return fileState.generation();
+    }
+
+    @Override
+    public void codeLive() {
+        fileState.codeLive();
+    }
+
+    @Override
+    public void make(Runnable afterCompile) {
+        fileState.compiled();
+        executor.schedule(() -> {
+            afterCompile.run();
+            proxy.drain(DRAIN_TIMEOUT_MS).thenRun(() -> {
+                backend.restartAsync();
+                proxy.resumeConnectAfterCompile();
+            });
+        }, compileMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
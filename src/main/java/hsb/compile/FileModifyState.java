@@ -0,0 +1,64 @@
+package hsb.compile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 判断是否需要编译：最后一次文件保存晚于最后一次编译开始，或者有没保存的文件。同时记录编译状态和编译代次。
+ * 不依赖idea，没保存的文件由调用方判断，模拟器等不启动idea的地方也可以直接使用
+ */
+public class FileModifyState {
+
+    public final static int UNCERTAIN = 0;
+    public final static int NOT_CHANGE = 1;
+    public final static int NEED_COMPILE = 2;
+    public final static int COMPILING = 3;
+
+    private volatile long lastCompilerStartTime = 0;
+    private volatile long lastFileSaveTime = 0;
+
+    private volatile int state = NOT_CHANGE;
+    //编译代次，每次编译开始加1，新代码生效后再加1
+    private final AtomicLong generation = new AtomicLong();
+
+    public boolean hasFileSaveAfterCompiler() {
+        return lastFileSaveTime > lastCompilerStartTime;
+    }
+
+    public void compiled() {
+        lastCompilerStartTime = System.nanoTime();
+        generation.incrementAndGet();
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    public void codeLive() {
+        generation.incrementAndGet();
+    }
+
+    public void fileTreeChange() {
+        lastFileSaveTime = System.nanoTime();
+    }
+
+    public void changeState(int newState) {
+        this.state = newState;
+    }
+
+    /**
+     * @param unsavedFiles 是否有没保存的文件，正在编译时不调用
+     */
+    public int hasFileModify(BooleanSupplier unsavedFiles) {
+        if (state == COMPILING) {
+            return COMPILING;
+        }
+        if (hasFileSaveAfterCompiler() || unsavedFiles.getAsBoolean()) {
+            return NEED_COMPILE;
+        }
+        return NOT_CHANGE;
+    }
+}
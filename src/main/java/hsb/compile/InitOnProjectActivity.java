@@ -7,6 +7,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.ProjectActivity;
 import com.intellij.util.messages.MessageBusConnection;
 import hsb.compile.service.SocketService;
+import hsb.compile.springboot.SpringBootDetector;
 import hsb.compile.springboot.SpringBootDevtool;
 import kotlin.Unit;
 import kotlin.coroutines.Continuation;
@@ -49,6 +50,9 @@ public class InitOnProjectActivity implements ProjectActivity, Disposable {
         SpringBootDevtool devtool = new SpringBootDevtool(project, connection);
         devtool.listener();
 
+        //提前判断运行配置是不是springboot项目，启动时直接用缓存
+        project.getService(SpringBootDetector.class).prewarm();
+
 
 //        connection.subscribe(ProjectCloseListener.TOPIC, new ProjectCloseListener() {
 //        });
@@ -1,12 +1,28 @@
 package hsb.compile;
 
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.compiler.CompilationStatusListener;
 import com.intellij.openapi.compiler.CompileContext;
-
+import com.intellij.openapi.compiler.CompilerMessage;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
+import hsb.compile.service.ClasspathStability;
 import hsb.compile.service.RunningSpringbootManager;
-import hsb.compile.service.SocketService;
+import hsb.compile.springboot.ClassShape;
+import hsb.compile.springboot.CompileChanges;
+import hsb.compile.springboot.CompileResult;
+import hsb.compile.springboot.OutputKind;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author hsb
@@ -14,9 +30,16 @@ import hsb.compile.service.SocketService;
  */
 public class MyCompilationStatusListener implements CompilationStatusListener {
 
+    private static final Logger LOG = Logger.getInstance(MyCompilationStatusListener.class);
+
     Project project;
 
-    boolean change =false;
+    //每个class文件最近一次编译的结构，key是class文件路径
+    private final Map<String, ClassShape> classShapes = new ConcurrentHashMap<>();
+    //本次编译生成的文件分类，编译完成后交给项目决定是否重启
+    volatile CompileChanges changes = new CompileChanges(classShapes);
+    //测试代码的输出目录，每次编译第一次用到时计算
+    volatile Set<String> testOutputRoots;
 
     public MyCompilationStatusListener(Project project) {
         this.project = project;
@@ -30,44 +53,107 @@ public class MyCompilationStatusListener implements CompilationStatusListener {
     public void compilationFinished(boolean aborted, int errors, int warnings, CompileContext compileContext) {
         if (errors>0){
             System.out.println("编译失败");
+            //项目不会重启，代理直接用编译错误响应等待中的请求
+            afterCompile(failedResult(compileContext));
+            resetChanges();
             return;
         }
         // 编译完成后的代码
-        //todo 判断是不是有编译错误
-        printMsg(change);
-        change=false;
+        printMsg(resetChanges());
     }
 
     @Override
     public void automakeCompilationFinished(int errors, int warnings, CompileContext compileContext) {
         // 自动编译完成后的代码
-        printMsg(change);
-        change=false;
+        if (errors>0){
+            afterCompile(failedResult(compileContext));
+            resetChanges();
+            return;
+        }
+        printMsg(resetChanges());
     }
 
     @Override
     public void fileGenerated(String outputRoot, String relativePath) {
-        change=true;
         // 文件生成后的代码
-        System.out.println("fileGenerated");
+        OutputKind kind = OutputKind.classify(relativePath, isTestOutput(outputRoot));
+        LOG.debug("fileGenerated:" + kind + " " + relativePath);
+        if (kind == OutputKind.MAIN && relativePath.endsWith(".class")) {
+            addClass(outputRoot, relativePath);
+        } else {
+            changes.add(kind, outputRoot);
+        }
+    }
+
+    /**
+     * 编译器回调里只记录路径，结构在决定能否替换class时才读取
+     */
+    private void addClass(String outputRoot, String relativePath) {
+        String path = CompileChanges.normalize(outputRoot) + "/" + relativePath.replace('\\', '/');
+        String name = relativePath.replace('\\', '/').replace('/', '.');
+        name = name.substring(0, name.length() - ".class".length());
+        changes.addClass(outputRoot, name, path);
+    }
 
+    private synchronized CompileChanges resetChanges() {
+        CompileChanges finished = changes;
+        changes = new CompileChanges(classShapes);
+        testOutputRoots = null;
+        return finished;
     }
 
-    private void printMsg(boolean change){
-        if (change){
+    private boolean isTestOutput(String outputRoot) {
+        Set<String> roots = testOutputRoots;
+        if (roots == null) {
+            roots = ReadAction.compute(() -> {
+                Set<String> paths = new HashSet<>();
+                for (Module module : ModuleManager.getInstance(project).getModules()) {
+                    String path = CompilerPaths.getModuleOutputPath(module, true);
+                    if (path != null) {
+                        paths.add(CompileChanges.normalize(path));
+                    }
+                }
+                return paths;
+            });
+            testOutputRoots = roots;
+        }
+        return roots.contains(CompileChanges.normalize(outputRoot));
+    }
+
+    private void printMsg(CompileChanges changes){
+        if (!changes.isEmpty()){
             System.out.println("编译完成");
         }else {
             System.out.println("编译完成，但可能没有文件改变");
         }
-        SocketService service = ApplicationManager.getApplication().getService(SocketService.class);
-        //todo 这里应该改成进程pid
+        //每个项目按生成的文件决定是否重启，需要重启时代理先排空正在处理的请求，再通知项目重启
+        project.getService(ClasspathStability.class).recordCompile(changes);
+        afterCompile(CompileResult.success(changes));
 
-        RunningSpringbootManager springbootManager = project.getService(RunningSpringbootManager.class);
-        int[] pids= springbootManager.getAllPid();
-        for (int pid : pids) {
-            service.send(pid);
-        }
+    }
 
+    /**
+     * 通知所有运行中的项目，不等待。每个项目的代理只等自己的项目重启，这里只记录全部完成的耗时
+     */
+    private void afterCompile(CompileResult result) {
+        long start = System.currentTimeMillis();
+        project.getService(RunningSpringbootManager.class).afterCompile(result)
+                .whenComplete((v, e) -> LOG.info("编译后所有项目处理完成，耗时" + (System.currentTimeMillis() - start) + "ms"));
+    }
+
+    private static CompileResult failedResult(CompileContext compileContext) {
+        List<String> errors = new ArrayList<>();
+        for (CompilerMessage message : compileContext.getMessages(CompilerMessageCategory.ERROR)) {
+            StringBuilder line = new StringBuilder();
+            if (message.getVirtualFile() != null) {
+                line.append(message.getVirtualFile().getPresentableUrl()).append(' ');
+            }
+            if (message.getRenderTextPrefix() != null) {
+                line.append(message.getRenderTextPrefix()).append(' ');
+            }
+            errors.add(line.append(message.getMessage()).toString());
+        }
+        return CompileResult.failed(errors);
     }
 
 
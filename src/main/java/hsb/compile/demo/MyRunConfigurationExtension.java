@@ -5,28 +5,55 @@ import com.intellij.execution.JavaRunConfigurationBase;
 import com.intellij.execution.RunConfigurationExtension;
 import com.intellij.execution.application.ApplicationConfiguration;
 import com.intellij.execution.configurations.*;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.projectRoots.JavaSdk;
+import com.intellij.openapi.projectRoots.JavaSdkVersion;
+import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.WriteExternalException;
-import com.intellij.psi.PsiAnnotation;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiModifierList;
-import com.intellij.psi.impl.source.tree.java.PsiAnnotationImpl;
 import com.intellij.util.PathsList;
+import hsb.compile.service.AgentJar;
+import hsb.compile.service.AppCds;
+import hsb.compile.service.ClasspathStability;
+import hsb.compile.service.ProxySettings;
+import hsb.compile.service.SocketService;
+import hsb.compile.springboot.SpringBootDetector;
 import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 /**
  * @author 胡帅博
  * @date 2024/3/3 11:16
  *
- * 运行配置，用于检测是不是springboot项目，对于springboot项目，添加一个jar到 classpath
+ * 运行配置，用于检测是不是springboot项目，对于springboot项目，把插件里的agent加到 classpath 和 -javaagent
  *
  */
 public class MyRunConfigurationExtension extends RunConfigurationExtension {
 
     public static final Key<Boolean> SPRINGBOOT = new Key<>("SPRINGBOOT_PROJECT");
+    //classpath里的目录，也就是各个模块的编译输出目录，代理从这里直接返回静态资源
+    public static final Key<List<Path>> CLASSPATH_DIRECTORIES = new Key<>("SPRINGBOOT_CLASSPATH_DIRECTORIES");
+    //蓝绿模式启动的新实例：原来实例的pid，以及新实例使用的web端口
+    public static final Key<Integer> SHADOW_OF = new Key<>("SPRINGBOOT_SHADOW_OF");
+    public static final Key<Integer> SHADOW_PORT = new Key<>("SPRINGBOOT_SHADOW_PORT");
+    //这次启动是否使用AppCDS归档，进程结束后保存生成的归档，也用于对比启动耗时
+    public static final Key<AppCds.Launch> APP_CDS = new Key<>("SPRINGBOOT_APP_CDS");
+    //这次启动放进devtools基础类加载器的模块输出目录
+    public static final Key<Set<String>> BASE_CLASSLOADER_ROOTS = new Key<>("SPRINGBOOT_BASE_CLASSLOADER_ROOTS");
+
+    //蓝绿模式的新实例由插件指定的命令行参数
+    private static final List<String> SHADOW_PROGRAM_OVERRIDES = List.of("server.port", "management.server.port", "spring.devtools.livereload.enabled");
+    //新实例启动时会和旧实例冲突的jvm参数
+    private static final List<String> SHADOW_VM_REMOVALS = List.of("-Dcom.sun.management.jmxremote.port=", "-Dcom.sun.management.jmxremote.rmi.port=");
 
     @Override
     public <T extends RunConfigurationBase<?>> void updateJavaParameters(@NotNull T configuration, @NotNull JavaParameters params, @Nullable RunnerSettings runnerSettings) throws ExecutionException {
@@ -37,33 +64,98 @@ public class MyRunConfigurationExtension extends RunConfigurationExtension {
                 return;
             }
 
-            // 检查 main 类是否有 @SpringBootApplication 注解
-            if (hasSpringBootApplicationAnnotation(mainClass)) {
+            // 检查 main 类是否有 @SpringBootApplication 注解，包括组合注解
+            if (mainClass.getProject().getService(SpringBootDetector.class).isSpringBootMain(mainClass)) {
                 PathsList classPath = params.getClassPath();
-                classPath.add("G:\\kaifa_environment\\code\\java\\starter_demo\\target\\port-1.0.jar");
+                List<Path> directories = new ArrayList<>();
+                for (String entry : classPath.getPathList()) {
+                    Path path = Path.of(entry);
+                    if (Files.isDirectory(path)) {
+                        directories.add(path);
+                    }
+                }
+                configuration.putUserData(CLASSPATH_DIRECTORIES, directories);
+
+                ProxySettings settings = ApplicationManager.getApplication().getService(ProxySettings.class);
+                Set<String> baseRoots = Set.of();
+                if (settings.isStableModulesInBaseClassLoader()) {
+                    baseRoots = mainClass.getProject().getService(ClasspathStability.class)
+                            .baseClassLoaderRoots(appConfig.getConfigurationModule().getModule(), directories);
+                    Path properties = ClasspathStability.writeDevtoolsProperties(appConfig.getName(), baseRoots);
+                    if (properties != null) {
+                        classPath.add(properties.toString());
+                    } else {
+                        baseRoots = Set.of();
+                    }
+                }
+                configuration.putUserData(BASE_CLASSLOADER_ROOTS, baseRoots);
+
+                Path agent = AgentJar.get();
+                //agent按java17编译，连接idea用到了unix domain socket，低版本jdk加载会启动失败，只能不加，按普通devtools项目运行
+                if (agent != null && isAtLeastJdk17(params)) {
+                    //放在classpath最前面，覆盖devtools的FileSystemWatcher；同时作为agent，可以直接替换class
+                    classPath.addFirst(agent.toString());
+                    params.getVMParametersList().add("-javaagent:" + agent);
+                }
+                //告诉项目连接哪个idea
+                String endpoint = ApplicationManager.getApplication().getService(SocketService.class).getEndpoint();
+                if (endpoint != null) {
+                    params.getVMParametersList().addProperty(SocketService.ENDPOINT_PROPERTY, endpoint);
+                }
+                if (settings.isAppCds()) {
+                    configuration.putUserData(APP_CDS, AppCds.apply(configuration.getName(), params));
+                } else {
+                    configuration.putUserData(APP_CDS, new AppCds.Launch(AppCds.Mode.OFF, null, null));
+                }
+                Integer shadowPort = configuration.getUserData(SHADOW_PORT);
+                if (shadowPort != null) {
+                    applyShadowPort(params, shadowPort);
+                }
                 configuration.putUserData(SPRINGBOOT,true);
             }
         }
     }
 
-    @Override
-    public boolean isApplicableFor(@NotNull RunConfigurationBase<?> configuration) {
-        return configuration instanceof JavaRunConfigurationBase;
-    }
+    /**
+     * 蓝绿模式的新实例不能使用旧实例占着的端口。命令行参数优先级最高，--server.port 会被 -D、SPRING_APPLICATION_JSON 覆盖。
+     * 管理端口和web端口合并，不启动livereload，去掉jmx的固定端口
+     */
+    private static void applyShadowPort(JavaParameters params, int shadowPort) {
+        ParametersList programParameters = params.getProgramParametersList();
+        List<String> kept = new ArrayList<>();
+        for (String parameter : programParameters.getList()) {
+            //同名的命令行参数会被spring合并成 8080,9090，先去掉项目自己的
+            if (SHADOW_PROGRAM_OVERRIDES.stream().noneMatch(name -> parameter.startsWith("--" + name + "="))) {
+                kept.add(parameter);
+            }
+        }
+        programParameters.clearAll();
+        programParameters.addAll(kept);
+        programParameters.add("--server.port=" + shadowPort);
+        //和server.port相同时管理端点跟web共用一个服务器
+        programParameters.add("--management.server.port=" + shadowPort);
+        programParameters.add("--spring.devtools.livereload.enabled=false");
 
-    private boolean hasSpringBootApplicationAnnotation(PsiClass psiClass) {
-        PsiModifierList modifierList = psiClass.getModifierList();
-        if (modifierList != null) {
-            PsiAnnotation[] annotations = modifierList.getAnnotations();
-            for (PsiAnnotation annotation : annotations) {
-                String annotationShortName = PsiAnnotationImpl.getAnnotationShortName(annotation.getText());
-                // String qualifiedName = annotation.getQualifiedName(); //这个第一次比较慢，
-                if ("SpringBootApplication".equals(annotationShortName)) {
-                    return true;
-                }
+        ParametersList vmParameters = params.getVMParametersList();
+        List<String> vmKept = new ArrayList<>();
+        for (String parameter : vmParameters.getList()) {
+            if (SHADOW_VM_REMOVALS.stream().noneMatch(parameter::startsWith)) {
+                vmKept.add(parameter);
             }
         }
-        return false;
+        vmParameters.clearAll();
+        vmParameters.addAll(vmKept);
+    }
+
+    private static boolean isAtLeastJdk17(JavaParameters params) {
+        Sdk jdk = params.getJdk();
+        JavaSdkVersion version = jdk == null ? null : JavaSdk.getInstance().getVersion(jdk);
+        return version != null && version.isAtLeast(JavaSdkVersion.JDK_17);
+    }
+
+    @Override
+    public boolean isApplicableFor(@NotNull RunConfigurationBase<?> configuration) {
+        return configuration instanceof JavaRunConfigurationBase;
     }
 }
 
@@ -0,0 +1,73 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 插件里打包的springboot项目端agent（agent模块）。第一次用到时解压到 idea系统目录/compile-listener/agent/内容哈希/ 下，
+ * 之后每次启动项目直接用这个路径。插件升级后内容变了目录也会变，不会用到旧的jar
+ */
+public final class AgentJar {
+
+    private static final Logger LOG = Logger.getInstance(AgentJar.class);
+
+    private static final String RESOURCE = "/agent/compile-listener-agent.jar";
+
+    private static volatile Path path;
+
+    private AgentJar() {
+    }
+
+    /**
+     * 解压后的agent路径，插件里没有打包agent或者解压失败时返回null
+     */
+    public static Path get() {
+        Path extracted = path;
+        if (extracted != null) {
+            return extracted;
+        }
+        synchronized (AgentJar.class) {
+            if (path == null) {
+                path = extract();
+            }
+            return path;
+        }
+    }
+
+    private static Path extract() {
+        try (InputStream in = AgentJar.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                LOG.warn("插件里没有找到agent:" + RESOURCE);
+                return null;
+            }
+            byte[] bytes = in.readAllBytes();
+            String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)).substring(0, 16);
+            Path target = Path.of(PathManager.getSystemPath(), "compile-listener", "agent", hash, "compile-listener-agent.jar");
+            if (Files.isRegularFile(target) && Files.size(target) == bytes.length) {
+                return target;
+            }
+            Files.createDirectories(target.getParent());
+            //先写临时文件再移动，多个idea实例同时解压也不会读到写了一半的jar
+            Path temp = Files.createTempFile(target.getParent(), "agent", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("agent解压到:" + target);
+            return target;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOG.error("agent解压失败", e);
+            return null;
+        }
+    }
+}
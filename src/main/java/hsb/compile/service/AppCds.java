@@ -0,0 +1,178 @@
+package hsb.compile.service;
+
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.projectRoots.JavaSdk;
+import com.intellij.openapi.projectRoots.JavaSdkVersion;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.util.PathsList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 每个运行配置一份AppCDS动态归档，放在 idea系统目录/compile-listener/cds/运行配置名/classpath哈希.jsa。
+ * 没有归档时用 -XX:ArchiveClassesAtExit 启动，进程结束后把生成的归档移动到位；有归档时用 -XX:SharedArchiveFile 启动。
+ * 哈希包括jdk和classpath里所有jar的路径、大小、修改时间，依赖变了哈希就变了，会重新生成。
+ * 同时记录每种方式的启动耗时（进程启动到web端口开始监听），用于对比
+ */
+public final class AppCds {
+
+    private static final Logger LOG = Logger.getInstance(AppCds.class);
+
+    public enum Mode {
+        OFF("不使用归档"), DUMP("生成归档"), SHARED("使用归档");
+
+        final String description;
+
+        Mode(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * 一次启动使用的方式，dumpFile是DUMP时jvm退出时写入的临时文件
+     */
+    public record Launch(Mode mode, Path archive, Path dumpFile) {
+    }
+
+    //运行配置名称 -> 每种方式的启动耗时，只在内存中保留
+    private static final Map<String, Map<Mode, List<Long>>> startupTimes = new ConcurrentHashMap<>();
+
+    private AppCds() {
+    }
+
+    /**
+     * 决定这次启动生成还是使用归档，并修改启动参数。jdk低于13（不支持动态归档）时不做修改
+     */
+    public static Launch apply(String configName, JavaParameters params) {
+        Sdk jdk = params.getJdk();
+        JavaSdkVersion version = jdk == null ? null : JavaSdk.getInstance().getVersion(jdk);
+        if (version == null || !version.isAtLeast(JavaSdkVersion.JDK_13)) {
+            return new Launch(Mode.OFF, null, null);
+        }
+        PathsList classPath = params.getClassPath();
+        List<String> jars = new ArrayList<>();
+        for (String entry : classPath.getPathList()) {
+            if (!Files.isDirectory(Path.of(entry))) {
+                jars.add(entry);
+            }
+        }
+        //jvm只归档排在所有非空目录之前的jar里的类，但是不调整classpath顺序：基础类加载器里的模块、
+        //覆盖依赖里同名class或资源的模块都依赖原来的顺序。排在目录后面的jar不归档，只是少归档一些类
+        try {
+            Path dir = Path.of(PathManager.getSystemPath(), "compile-listener", "cds", sanitize(configName));
+            String hash = hash(jdk, jars);
+            Path archive = dir.resolve(hash + ".jsa");
+            if (Files.isRegularFile(archive)) {
+                params.getVMParametersList().add("-XX:SharedArchiveFile=" + archive);
+                return new Launch(Mode.SHARED, archive, null);
+            }
+            Files.createDirectories(dir);
+            //多个实例可能同时生成，各自写自己的临时文件
+            Path dumpFile = dir.resolve(hash + "." + System.nanoTime() + ".tmp");
+            params.getVMParametersList().add("-XX:ArchiveClassesAtExit=" + dumpFile);
+            return new Launch(Mode.DUMP, archive, dumpFile);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOG.warn("AppCDS归档目录创建失败，这次不使用归档", e);
+            return new Launch(Mode.OFF, null, null);
+        }
+    }
+
+    /**
+     * 进程结束后调用，生成了归档时移动到位，并删除这个运行配置的旧归档
+     */
+    public static void finish(Launch launch) {
+        if (launch == null || launch.mode() != Mode.DUMP) {
+            return;
+        }
+        try {
+            if (!Files.isRegularFile(launch.dumpFile()) || Files.size(launch.dumpFile()) == 0) {
+                LOG.info("进程结束时没有生成AppCDS归档:" + launch.dumpFile());
+                return;
+            }
+            if (Files.exists(launch.archive())) {
+                Files.delete(launch.dumpFile());
+                return;
+            }
+            Files.move(launch.dumpFile(), launch.archive(), StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("生成了AppCDS归档:" + launch.archive());
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(launch.archive().getParent(), "*.jsa")) {
+                for (Path old : stream) {
+                    if (!old.equals(launch.archive())) {
+                        Files.deleteIfExists(old);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("保存AppCDS归档失败", e);
+        }
+    }
+
+    /**
+     * 记录一次启动耗时
+     */
+    public static void recordStartup(String configName, Launch launch, long millis) {
+        Mode mode = launch == null ? Mode.OFF : launch.mode();
+        Map<Mode, List<Long>> byMode = startupTimes.computeIfAbsent(configName, k -> new EnumMap<>(Mode.class));
+        synchronized (byMode) {
+            byMode.computeIfAbsent(mode, k -> new ArrayList<>()).add(millis);
+        }
+        LOG.info("项目" + configName + "启动耗时" + millis + "ms（" + mode.description + "）");
+    }
+
+    /**
+     * 各运行配置每种方式的平均启动耗时
+     */
+    public static String report() {
+        if (startupTimes.isEmpty()) {
+            return "还没有记录到启动耗时";
+        }
+        StringBuilder report = new StringBuilder();
+        startupTimes.forEach((configName, byMode) -> {
+            report.append(configName).append('\n');
+            synchronized (byMode) {
+                byMode.forEach((mode, times) -> {
+                    long average = times.stream().mapToLong(Long::longValue).sum() / times.size();
+                    report.append("    ").append(mode.description).append(": 平均").append(average)
+                            .append("ms，共").append(times.size()).append("次\n");
+                });
+            }
+        });
+        return report.toString();
+    }
+
+    private static String hash(Sdk jdk, List<String> jars) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((jdk.getHomePath() + "|" + jdk.getVersionString() + "\n").getBytes(StandardCharsets.UTF_8));
+        for (String jar : jars) {
+            Path path = Path.of(jar);
+            String entry = Files.isRegularFile(path)
+                    ? jar + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis()
+                    : jar;
+            digest.update((entry + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+    }
+
+    private static String sanitize(String configName) {
+        //中文名称替换后可能重复，加上名称的哈希
+        return configName.replaceAll("[^\\w.-]", "_") + "-" + Integer.toHexString(configName.hashCode());
+    }
+}
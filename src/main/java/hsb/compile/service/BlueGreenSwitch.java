@@ -0,0 +1,173 @@
+package hsb.compile.service;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.RunManager;
+import com.intellij.execution.RunnerAndConfigurationSettings;
+import com.intellij.execution.application.ApplicationConfiguration;
+import com.intellij.execution.executors.DefaultRunExecutor;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.runners.ExecutionEnvironmentBuilder;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import hsb.compile.demo.MyRunConfigurationExtension;
+import hsb.compile.springboot.SpringBootPortForwardingProxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 蓝绿模式的一次切换。编译后不重启原来的项目，而是复制运行配置在另一个端口上启动一个新实例，
+ * 新实例启动期间请求继续由旧实例处理；新实例开始监听端口后，代理的后端端口切换到新实例，
+ * 等旧实例上正在处理的请求返回后停止旧实例。
+ * 只切换web端口的代理，其他端口（比如单独的管理端口）还是旧实例的端口
+ */
+class BlueGreenSwitch {
+
+    private static final Logger LOG = Logger.getInstance(BlueGreenSwitch.class);
+
+    //切换后等待旧实例上正在处理的请求完成的最长时间
+    private static final long DRAIN_TIMEOUT_MS = 3000;
+
+    private final Project project;
+    private final RunningSpringBootProject app;
+    private final SpringBootPortForwardingProxy proxy;
+    private final CompletableFuture<ProcessHandler> started = new CompletableFuture<>();
+    private int shadowPort;
+    private volatile int shadowPid;
+    private volatile ProcessHandler shadowHandler;
+    private volatile boolean cancelled = false;
+    private volatile boolean switched = false;
+
+    BlueGreenSwitch(Project project, RunningSpringBootProject app, SpringBootPortForwardingProxy proxy) {
+        this.project = project;
+        this.app = app;
+        this.proxy = proxy;
+    }
+
+    /**
+     * 启动新实例，返回的future在切换完成、旧实例停止后完成
+     */
+    CompletableFuture<Void> start() {
+        try {
+            shadowPort = freePort();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        int oldPort = proxy.getRemotePort();
+        ApplicationManager.getApplication().invokeLater(this::launch, project.getDisposed());
+        return started
+                .thenCompose(handler -> CompletableFuture.runAsync(this::awaitReady, AppExecutorUtil.getAppExecutorService()))
+                .thenCompose(v -> switchOver(oldPort));
+    }
+
+    private void launch() {
+        if (cancelled) {
+            return;
+        }
+        ApplicationConfiguration copy = (ApplicationConfiguration) app.configuration.clone();
+        copy.setName(app.name + " (blue-green)");
+        copy.putUserData(MyRunConfigurationExtension.SHADOW_OF, app.pid);
+        copy.putUserData(MyRunConfigurationExtension.SHADOW_PORT, shadowPort);
+        RunnerAndConfigurationSettings settings = RunManager.getInstance(project).createConfiguration(copy, copy.getFactory());
+        try {
+            LOG.info("蓝绿模式：在端口" + shadowPort + "上启动" + app.name + "的新实例");
+            ExecutionEnvironmentBuilder.create(DefaultRunExecutor.getRunExecutorInstance(), settings).buildAndExecute();
+        } catch (ExecutionException e) {
+            started.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 识别到新实例的进程后调用
+     */
+    void shadowStarted(int pid, ProcessHandler handler) {
+        shadowPid = pid;
+        shadowHandler = handler;
+        if (cancelled) {
+            handler.destroyProcess();
+            return;
+        }
+        started.complete(handler);
+    }
+
+    /**
+     * 新实例的进程结束了，切换之前结束的话切换失败
+     */
+    void shadowTerminated() {
+        if (!switched) {
+            started.completeExceptionally(new IllegalStateException("新实例启动失败"));
+        }
+    }
+
+    private void awaitReady() {
+        while (true) {
+            if (cancelled || shadowHandler.isProcessTerminated()) {
+                throw new CancellationException("新实例没有启动完成");
+            }
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", shadowPort), 1000);
+                return;
+            } catch (IOException e) {
+                //还没有监听端口
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> switchOver(int oldPort) {
+        synchronized (this) {
+            if (cancelled) {
+                throw new CancellationException("切换已取消");
+            }
+            switched = true;
+        }
+        int oldPid = app.pid;
+        ProcessHandler oldHandler = app.processHandler;
+        proxy.switchBackend(shadowPort);
+        project.getService(RunningSpringbootManager.class).switchInstance(app, oldPid, shadowPid, shadowHandler, oldPort, shadowPort);
+        return proxy.drainBackend(oldPort, DRAIN_TIMEOUT_MS).thenRun(() -> {
+            LOG.info("蓝绿模式：已切换到新实例" + shadowPid + "，停止旧实例" + oldPid);
+            if (oldHandler != null) {
+                oldHandler.destroyProcess();
+            }
+        });
+    }
+
+    /**
+     * 又编译了一次或者超时，停止还没有切换的新实例
+     */
+    void cancel() {
+        ProcessHandler handler;
+        synchronized (this) {
+            if (switched) {
+                return;
+            }
+            cancelled = true;
+            handler = shadowHandler;
+        }
+        started.cancel(false);
+        if (handler != null) {
+            handler.destroyProcess();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEnumerator;
+import hsb.compile.springboot.CompileChanges;
+import hsb.compile.springboot.OutputKind;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 记录每次编译生成文件的输出目录，找出长时间没有变化的模块。
+ * devtools默认把classpath里所有目录放进重启类加载器，每次重启都重新加载；
+ * 启动项目时把稳定的模块写进 spring-devtools.properties 的 restart.exclude，放到基础类加载器里，重启时少加载很多类。
+ * <p>
+ * 基础类加载器里的类看不到重启类加载器里的类，所以一个模块依赖的所有模块都稳定时它才算稳定，启动类所在的模块不排除。
+ * 排除后的模块又有变化时，只修改方法体的还可以直接替换class，需要重启时只能重新启动项目，
+ * 这次变化已经记录下来，下次启动时它不再被排除
+ */
+@Service(Service.Level.PROJECT)
+@State(name = "SpringbootClasspathStability", storages = @Storage(StoragePathMacros.WORKSPACE_FILE))
+public final class ClasspathStability implements PersistentStateComponent<ClasspathStability.State> {
+
+    private static final Logger LOG = Logger.getInstance(ClasspathStability.class);
+
+    //连续这么多次编译没有变化的输出目录算稳定
+    private static final int STABLE_COMPILES = 20;
+
+    public static class State {
+        //成功编译的次数
+        public int compiles = 0;
+        //输出目录 -> 第一次出现在项目classpath里时的编译次数
+        public Map<String, Integer> firstSeen = new HashMap<>();
+        //输出目录 -> 最近一次生成文件时的编译次数
+        public Map<String, Integer> lastChanged = new HashMap<>();
+    }
+
+    private final Project project;
+    private State state = new State();
+
+    public ClasspathStability(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull State state) {
+        this.state = state;
+    }
+
+    /**
+     * 一次成功的编译，记录生成了文件的输出目录
+     */
+    public synchronized void recordCompile(CompileChanges changes) {
+        state.compiles++;
+        for (OutputKind kind : OutputKind.values()) {
+            for (String root : changes.outputRoots(kind)) {
+                state.lastChanged.put(root, state.compiles);
+            }
+        }
+    }
+
+    /**
+     * 项目classpath里可以放进基础类加载器的目录
+     *
+     * @param mainModule 启动类所在的模块，可以为null
+     */
+    public Set<String> baseClassLoaderRoots(Module mainModule, List<Path> directories) {
+        Set<String> candidates = new LinkedHashSet<>();
+        synchronized (this) {
+            for (Path directory : directories) {
+                String root = CompileChanges.normalize(directory.toString());
+                int firstSeen = state.firstSeen.computeIfAbsent(root, k -> state.compiles);
+                int lastChanged = state.lastChanged.getOrDefault(root, firstSeen);
+                if (state.compiles - firstSeen >= STABLE_COMPILES && state.compiles - lastChanged >= STABLE_COMPILES) {
+                    candidates.add(root);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        return ReadAction.compute(() -> {
+            //模块输出目录 -> 它运行时依赖的所有模块输出目录
+            Map<String, Set<String>> dependencies = new HashMap<>();
+            Set<String> mainRoots = new HashSet<>();
+            for (Module module : ModuleManager.getInstance(project).getModules()) {
+                Set<String> roots = new HashSet<>();
+                for (String path : OrderEnumerator.orderEntries(module).withoutSdk().withoutLibraries()
+                        .productionOnly().runtimeOnly().recursively().classes().getPathsList().getPathList()) {
+                    roots.add(CompileChanges.normalize(path));
+                }
+                for (String path : OrderEnumerator.orderEntries(module).withoutSdk().withoutLibraries()
+                        .withoutDepModules().productionOnly().classes().getPathsList().getPathList()) {
+                    String own = CompileChanges.normalize(path);
+                    dependencies.put(own, roots);
+                    if (module.equals(mainModule)) {
+                        mainRoots.add(own);
+                    }
+                }
+            }
+            Set<String> stable = new LinkedHashSet<>(candidates);
+            stable.removeAll(mainRoots);
+            //不在任何模块里的目录不知道依赖关系，不排除；依赖了不稳定模块的也不排除，直到没有变化
+            boolean removed = true;
+            while (removed) {
+                removed = stable.removeIf(root -> {
+                    Set<String> roots = dependencies.get(root);
+                    return roots == null || !stable.containsAll(roots.stream().filter(r -> !r.equals(root)).toList());
+                });
+            }
+            return stable;
+        });
+    }
+
+    /**
+     * 生成只包含 restart.exclude 的 spring-devtools.properties，返回需要加到classpath的目录，没有需要排除的目录时返回null。
+     * devtools会合并classpath里所有的 META-INF/spring-devtools.properties，项目自己的配置仍然有效
+     */
+    public static Path writeDevtoolsProperties(String configName, Set<String> roots) {
+        if (roots.isEmpty()) {
+            return null;
+        }
+        StringBuilder properties = new StringBuilder("# generated by compile-listener\n");
+        int index = 0;
+        for (String root : roots) {
+            String url = Path.of(root).toUri().getRawPath();
+            if (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            //devtools用find匹配url
+            String regex = Pattern.quote(url) + "/?$";
+            properties.append("restart.exclude.compile-listener-").append(index++).append('=')
+                    .append(regex.replace("\\", "\\\\")).append('\n');
+        }
+        Path directory = Path.of(PathManager.getSystemPath(), "compile-listener", "devtools",
+                configName.replaceAll("[^\\w.-]", "_") + "-" + Integer.toHexString(configName.hashCode()));
+        try {
+            Path file = directory.resolve("META-INF").resolve("spring-devtools.properties");
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, properties, StandardCharsets.ISO_8859_1);
+            LOG.info("运行配置" + configName + "放进基础类加载器的模块:" + roots);
+            return directory;
+        } catch (IOException e) {
+            LOG.warn("生成spring-devtools.properties失败", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package hsb.compile.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * idea和springboot项目之间控制通道的传输层，支持unix domain socket和本地tcp两种。
+ * 地址格式 unix:///tmp/xxx/control.sock 或 tcp://127.0.0.1:端口，多个地址用逗号分隔，项目按顺序尝试
+ */
+public final class ControlChannels {
+
+    public static final String UNIX_SCHEME = "unix://";
+    public static final String TCP_SCHEME = "tcp://";
+
+    /**
+     * 项目连接后发送的第一个int。注册重启通知：pid；上报端口：pid、端口；带能力的注册：pid、能力标记；
+     * 启动步骤：pid、启动耗时毫秒、int数量，每个步骤是名称字符串和long自身耗时纳秒；
+     * 静态资源配置：pid、context-path字符串、static-path-pattern字符串、int是否有项目自己的过滤器、int数量，每个静态资源位置一个字符串
+     */
+    public static final int TYPE_REGISTER = 1;
+    public static final int TYPE_PORT = 2;
+    public static final int TYPE_REGISTER_WITH_CAPABILITIES = 3;
+    public static final int TYPE_STARTUP = 4;
+    public static final int TYPE_STATIC_RESOURCES = 5;
+
+    //读取项目发来的字符串时的长度上限，防止错误的数据分配大数组
+    private static final int MAX_STRING_BYTES = 64 * 1024;
+
+    /**
+     * 项目端加载了agent，可以用 Instrumentation.redefineClasses 替换class
+     */
+    public static final int CAPABILITY_REDEFINE = 1;
+
+    /**
+     * idea发给项目的命令，一个字节，项目对每个命令回复一个字节。
+     * 重启：没有后续数据，项目对比文件快照后回复，1表示发现变化、开始重启，0表示没有变化、不重启；
+     * 替换class：int数量，每个class是类名和class文件路径，字符串是int长度加utf-8字节，回复1表示替换成功
+     */
+    public static final byte COMMAND_RESTART = 0;
+    public static final byte COMMAND_REDEFINE = 1;
+
+    private ControlChannels() {
+    }
+
+    public static ServerSocketChannel bindTcp() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+        return server;
+    }
+
+    public static ServerSocketChannel bindUnix(Path socketFile) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketFile), 50);
+        return server;
+    }
+
+    public static String endpoint(ServerSocketChannel server) throws IOException {
+        SocketAddress address = server.getLocalAddress();
+        if (address instanceof UnixDomainSocketAddress unix) {
+            return UNIX_SCHEME + unix.getPath();
+        }
+        InetSocketAddress inet = (InetSocketAddress) address;
+        return TCP_SCHEME + inet.getAddress().getHostAddress() + ":" + inet.getPort();
+    }
+
+    /**
+     * 按顺序尝试连接逗号分隔的地址，全部失败时抛出最后一个异常
+     */
+    public static SocketChannel connect(String endpoints) throws IOException {
+        IOException last = null;
+        for (String endpoint : endpoints.split(",")) {
+            try {
+                return SocketChannel.open(parse(endpoint.trim()));
+            } catch (IOException | UnsupportedOperationException e) {
+                last = e instanceof IOException io ? io : new IOException(e);
+            }
+        }
+        throw last != null ? last : new IOException("没有可用的地址:" + endpoints);
+    }
+
+    private static SocketAddress parse(String endpoint) {
+        if (endpoint.startsWith(UNIX_SCHEME)) {
+            return UnixDomainSocketAddress.of(endpoint.substring(UNIX_SCHEME.length()));
+        }
+        if (endpoint.startsWith(TCP_SCHEME)) {
+            String address = endpoint.substring(TCP_SCHEME.length());
+            int index = address.lastIndexOf(':');
+            return new InetSocketAddress(address.substring(0, index), Integer.parseInt(address.substring(index + 1)));
+        }
+        throw new IllegalArgumentException("不支持的地址:" + endpoint);
+    }
+
+    public static int readInt(SocketChannel channel) throws IOException {
+        return read(channel, 4).getInt();
+    }
+
+    public static long readLong(SocketChannel channel) throws IOException {
+        return read(channel, 8).getLong();
+    }
+
+    public static byte readByte(SocketChannel channel) throws IOException {
+        return read(channel, 1).get();
+    }
+
+    /**
+     * int长度加utf-8字节
+     */
+    public static String readString(SocketChannel channel) throws IOException {
+        int length = readInt(channel);
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("字符串长度错误:" + length);
+        }
+        return StandardCharsets.UTF_8.decode(read(channel, length)).toString();
+    }
+
+    private static ByteBuffer read(SocketChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * 替换class命令的完整数据
+     */
+    public static ByteBuffer redefineCommand(List<String> classNames, List<String> paths) {
+        List<byte[]> strings = new ArrayList<>(classNames.size() * 2);
+        int size = 1 + 4;
+        for (int i = 0; i < classNames.size(); i++) {
+            byte[] name = classNames.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] path = paths.get(i).getBytes(StandardCharsets.UTF_8);
+            strings.add(name);
+            strings.add(path);
+            size += 8 + name.length + path.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(COMMAND_REDEFINE).putInt(classNames.size());
+        for (byte[] string : strings) {
+            buffer.putInt(string.length).put(string);
+        }
+        return buffer.flip();
+    }
+
+    public static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 非阻塞模式的channel写完buffer，超过timeoutMs抛出 SocketTimeoutException，项目卡住时不会一直占着线程
+     */
+    public static void writeFully(SocketChannel channel, ByteBuffer buffer, long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_WRITE);
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    await(selector, deadline, "写入");
+                }
+            }
+        }
+    }
+
+    /**
+     * 非阻塞模式的channel读取一个字节，对方关闭连接时返回-1，超过timeoutMs抛出 SocketTimeoutException
+     */
+    public static int readByte(SocketChannel channel, long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return -1;
+                }
+                if (read > 0) {
+                    return buffer.get(0) & 0xff;
+                }
+                await(selector, deadline, "读取");
+            }
+        }
+    }
+
+    private static void await(Selector selector, long deadline, String operation) throws IOException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException(operation + "超时");
+        }
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        selector.selectedKeys().clear();
+    }
+}
@@ -0,0 +1,124 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import hsb.compile.springboot.GatewayProxy;
+import hsb.compile.springboot.GatewayRoutes;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 网关端口是应用级别的配置，所有idea项目共用一个网关。每个idea项目的 {@link RunningSpringbootManager}
+ * 上报自己运行中的项目，这里汇总后重新生成路由表，整体替换。
+ * 开启网关要绑定端口，调用方可能在界面线程上（勾选网关模式、关闭项目），刷新都放到后台线程按顺序执行
+ */
+@Service
+public final class GatewayService implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(GatewayService.class);
+
+    //idea项目 -> 这个idea项目里运行中的项目的路由，按运行配置名称
+    private final Map<Project, List<GatewayRoutes.Route>> routesByProject = new LinkedHashMap<>();
+
+    //网关模式开启后才创建，只在rebuild里修改
+    private GatewayProxy gateway;
+    //上次监听失败的端口，同一个端口只提示一次
+    private int failedPort = -1;
+    private boolean disposed = false;
+
+    private final ExecutorService refresher = AppExecutorUtil.createBoundedApplicationPoolExecutor("GatewayService", 1);
+
+    /**
+     * 替换一个idea项目的路由，routes为空时移除这个idea项目
+     */
+    public synchronized void update(Project project, List<GatewayRoutes.Route> routes) {
+        if (routes.isEmpty()) {
+            routesByProject.remove(project);
+        } else {
+            routesByProject.put(project, List.copyOf(routes));
+        }
+        refresh();
+    }
+
+    /**
+     * 按当前的配置和路由开启、关闭网关或者替换路由，在后台线程执行，立即返回
+     */
+    public void refresh() {
+        refresher.execute(this::rebuild);
+    }
+
+    /**
+     * 每个项目按 运行配置名称.localhost 匹配，再加上配置的路径前缀；所有idea项目一共只有一个项目时其他请求都转发给它。
+     * 不同idea项目里运行配置名称相同时，后上报的生效
+     */
+    private synchronized void rebuild() {
+        if (disposed) {
+            return;
+        }
+        ProxySettings settings = ApplicationManager.getApplication().getService(ProxySettings.class);
+        if (!settings.isGateway()) {
+            if (gateway != null) {
+                gateway.close();
+                gateway = null;
+                LOG.info("网关已关闭");
+            }
+            failedPort = -1;
+            return;
+        }
+        GatewayRoutes.Builder builder = GatewayRoutes.builder();
+        Map<String, GatewayRoutes.Route> byName = new HashMap<>();
+        for (List<GatewayRoutes.Route> routes : routesByProject.values()) {
+            for (GatewayRoutes.Route route : routes) {
+                byName.put(route.name(), route);
+                builder.host(GatewayRoutes.hostName(route.name()), route);
+            }
+        }
+        settings.gatewayPrefixes().forEach((prefix, name) -> {
+            GatewayRoutes.Route route = byName.get(name);
+            if (route != null) {
+                builder.prefix(prefix, route);
+            }
+        });
+        if (byName.size() == 1) {
+            builder.fallback(byName.values().iterator().next());
+        }
+        int port = settings.getGatewayPort();
+        if (gateway == null) {
+            GatewayProxy created = new GatewayProxy(port);
+            try {
+                created.run();
+            } catch (Exception e) {
+                created.close();
+                if (failedPort != port) {
+                    LOG.warn("网关端口" + port + "监听失败", e);
+                    failedPort = port;
+                }
+                return;
+            }
+            failedPort = -1;
+            gateway = created;
+        }
+        gateway.setRoutes(builder.build());
+    }
+
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        routesByProject.clear();
+        if (gateway != null) {
+            gateway.close();
+            gateway = null;
+        }
+    }
+}
@@ -7,5 +7,6 @@ package hsb.compile.service;
 public interface Listener {
 
     public void addProject(RunningSpringBootProject item );
+    public void updateProject(RunningSpringBootProject item);
     public void closeProject(int pid);
 }
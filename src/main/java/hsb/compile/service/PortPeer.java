@@ -5,10 +5,12 @@ package hsb.compile.service;
  * @date 2024/2/13 11:21
  */
 public class PortPeer {
-    //springboot项目的实际端口
-    public int realPort;
+    //springboot项目的实际端口，蓝绿切换后是新实例的端口
+    public volatile int realPort;
     //代理访问端口
-    public int proxyPort;
+    public volatile int proxyPort;
+    //端口消失的时间，0表示正在监听，devtools重启期间端口会短暂消失
+    public volatile long lostTime = 0;
 
     public PortPeer(int realPort, int proxyPort) {
         this.realPort = realPort;
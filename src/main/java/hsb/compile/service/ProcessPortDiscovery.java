@@ -0,0 +1,127 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * linux下直接读取 /proc/&lt;pid&gt;/fd 和 /proc/&lt;pid&gt;/net/tcp{,6} 获取进程监听的端口，不需要启动netstat子进程，
+ * 也不依赖项目里的agent上报端口
+ */
+public class ProcessPortDiscovery {
+
+    private static final Logger LOG = Logger.getInstance(ProcessPortDiscovery.class);
+
+    //tcp状态 LISTEN
+    private static final String TCP_LISTEN = "0A";
+
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final Project project;
+    private final int pid;
+    private final AtomicBoolean stop;
+
+    public ProcessPortDiscovery(Project project, int pid, AtomicBoolean stop) {
+        this.project = project;
+        this.pid = pid;
+        this.stop = stop;
+    }
+
+    public static boolean isSupported() {
+        return SystemInfo.isLinux && Files.isDirectory(Path.of("/proc/self/net"));
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::poll, "port-discovery-" + pid);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void poll() {
+        Path procDir = Path.of("/proc", String.valueOf(pid));
+        RunningSpringbootManager manager = project.getService(RunningSpringbootManager.class);
+        //端口没有变化时不会通知，所以这里每次都直接刷新
+        while (!stop.get() && !project.isDisposed() && Files.isDirectory(procDir)) {
+            try {
+                manager.refreshProjectPorts(pid, listListenPorts(pid));
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                //进程退出的瞬间读取会失败，下一轮循环会检测到进程目录不存在
+                LOG.debug("读取进程端口失败,pid:" + pid, e);
+            }
+        }
+        LOG.info("进程端口检测结束,pid:" + pid);
+    }
+
+    /**
+     * 获取进程正在监听的tcp端口，先拿到进程所有socket的inode，再到 net/tcp 中找到状态为LISTEN并且inode匹配的记录
+     */
+    public static Set<Integer> listListenPorts(int pid) throws IOException {
+        Set<Long> inodes = socketInodes(pid);
+        Set<Integer> ports = new TreeSet<>();
+        if (inodes.isEmpty()) {
+            return ports;
+        }
+        Path netDir = Path.of("/proc", String.valueOf(pid), "net");
+        collectListenPorts(netDir.resolve("tcp"), inodes, ports);
+        collectListenPorts(netDir.resolve("tcp6"), inodes, ports);
+        return ports;
+    }
+
+    private static Set<Long> socketInodes(int pid) throws IOException {
+        Set<Long> inodes = new HashSet<>();
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(Path.of("/proc", String.valueOf(pid), "fd"))) {
+            for (Path fd : fds) {
+                String target;
+                try {
+                    target = Files.readSymbolicLink(fd).toString();
+                } catch (IOException e) {
+                    //fd在遍历过程中被关闭了
+                    continue;
+                }
+                //格式 socket:[12345]
+                if (target.startsWith("socket:[") && target.endsWith("]")) {
+                    inodes.add(Long.parseLong(target, 8, target.length() - 1, 10));
+                }
+            }
+        }
+        return inodes;
+    }
+
+    private static void collectListenPorts(Path file, Set<Long> inodes, Set<Integer> ports) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file);
+        //第一行是表头
+        //  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode
+        for (int i = 1; i < lines.size(); i++) {
+            String[] split = lines.get(i).trim().split("\\s+");
+            if (split.length < 10 || !TCP_LISTEN.equals(split[3])) {
+                continue;
+            }
+            if (!inodes.contains(Long.parseLong(split[9]))) {
+                continue;
+            }
+            String localAddress = split[1];
+            int index = localAddress.lastIndexOf(':');
+            ports.add(Integer.parseInt(localAddress.substring(index + 1), 16));
+        }
+    }
+}
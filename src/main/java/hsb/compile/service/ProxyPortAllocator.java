@@ -0,0 +1,132 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 代理端口分配，每个idea实例一份。记住运行配置上次使用的代理端口，下次启动优先复用，
+ * 被占用的时候自动往后找一个空闲端口。功能开关在 {@link ProxySettings}
+ */
+@Service
+@State(name = "SpringbootProxyPortAllocator", storages = @Storage("compile-listener.xml"))
+public final class ProxyPortAllocator implements PersistentStateComponent<ProxyPortAllocator.State> {
+
+    private static final Logger LOG = Logger.getInstance(ProxyPortAllocator.class);
+
+    private static final int DEFAULT_PROXY_PORT = 8080;
+    private static final int MAX_SEARCH = 1000;
+
+    public static class State {
+        //运行配置名称:实际端口 -> 代理端口
+        public Map<String, Integer> proxyPorts = new HashMap<>();
+    }
+
+    private State state = new State();
+
+    //当前已经分配出去的代理端口 -> 运行配置名称:实际端口
+    private final Map<Integer, String> allocated = new HashMap<>();
+
+    @Override
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull State state) {
+        this.state = state;
+    }
+
+    /**
+     * 给运行配置的实际端口分配代理端口，优先使用上次记住的端口
+     */
+    public synchronized int allocate(String configName, int realPort) {
+        String key = key(configName, realPort);
+        Integer preferred = state.proxyPorts.get(key);
+        if (preferred != null && isAvailable(preferred, realPort)) {
+            allocated.put(preferred, key);
+            return preferred;
+        }
+        return allocateFrom(key, DEFAULT_PROXY_PORT, realPort);
+    }
+
+    /**
+     * 代理端口绑定失败后，重新分配一个，并且不再使用失败的端口
+     */
+    public synchronized int reallocate(String configName, int realPort, int failedPort) {
+        String key = key(configName, realPort);
+        allocated.remove(failedPort, key);
+        return allocateFrom(key, failedPort + 1, realPort);
+    }
+
+    /**
+     * 用户在界面上手动修改了代理端口，记住这个选择
+     */
+    public synchronized void remember(String configName, int realPort, int proxyPort) {
+        String key = key(configName, realPort);
+        allocated.values().remove(key);
+        allocated.put(proxyPort, key);
+        state.proxyPorts.put(key, proxyPort);
+    }
+
+    public synchronized void release(String configName, int realPort, int proxyPort) {
+        allocated.remove(proxyPort, key(configName, realPort));
+    }
+
+    /**
+     * 蓝绿切换后代理端口对应的实际端口变了，新实例的端口是临时的，不记住
+     */
+    public synchronized void switchRealPort(String configName, int oldRealPort, int newRealPort, int proxyPort) {
+        allocated.replace(proxyPort, key(configName, oldRealPort), key(configName, newRealPort));
+    }
+
+    private int allocateFrom(String key, int start, int realPort) {
+        for (int port = start; port < start + MAX_SEARCH && port <= 65535; port++) {
+            if (isAvailable(port, realPort)) {
+                allocated.put(port, key);
+                state.proxyPorts.put(key, port);
+                return port;
+            }
+        }
+        //实在找不到就交给系统分配
+        int port = ephemeralPort();
+        allocated.put(port, key);
+        LOG.warn("没有找到空闲的代理端口，使用系统分配的端口:" + port);
+        return port;
+    }
+
+    private boolean isAvailable(int port, int realPort) {
+        return port != realPort && !allocated.containsKey(port) && isFree(port);
+    }
+
+    private static boolean isFree(int port) {
+        try (ServerSocket ignored = new ServerSocket(port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int ephemeralPort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("无法分配代理端口", e);
+        }
+    }
+
+    private static String key(String configName, int realPort) {
+        return configName + ":" + realPort;
+    }
+}
@@ -0,0 +1,164 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import hsb.compile.springboot.WarmUpSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 代理和项目启动的功能开关，每个idea实例一份。代理相关的开关在新开启的代理上生效，启动相关的开关在下次启动项目时生效
+ */
+@Service
+@State(name = "SpringbootProxySettings", storages = @Storage("compile-listener.xml"))
+public final class ProxySettings implements PersistentStateComponent<ProxySettings.State> {
+
+    public static class State {
+        //发现web端口后自动开启代理
+        public boolean autoStart = false;
+        //缓存GET请求的响应，重新编译后失效
+        public boolean responseCache = false;
+        public int responseCacheMegabytes = 64;
+        //重启后预热最近的GET/HEAD请求
+        public boolean warmUp = false;
+        public int warmUpMaxRequests = 16;
+        public int warmUpParallelism = 4;
+        public long warmUpTimeoutMs = 5000;
+        //true时预热完成后才放行等待的请求
+        public boolean warmUpBeforeRelease = true;
+        //逗号分隔的路径通配符，例如 /api/**,/menu/*
+        public String warmUpInclude = "";
+        public String warmUpExclude = "/actuator/**";
+        //蓝绿模式：编译后启动一个新实例，启动完成后代理切换过去，再停止旧实例
+        public boolean blueGreen = false;
+        //springboot项目使用AppCDS归档加快启动
+        public boolean appCds = false;
+        //长时间没有变化的模块放进devtools的基础类加载器，重启时不重新加载
+        public boolean stableModulesInBaseClassLoader = false;
+        //网关模式：一个端口按Host或者路径前缀转发到所有运行中的项目
+        public boolean gateway = false;
+        public int gatewayPort = 8000;
+        //逗号分隔的 路径前缀=运行配置名称，例如 /api/order=order-service,/api/user=user-service
+        public String gatewayRoutes = "";
+    }
+
+    private State state = new State();
+
+    @Override
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull State state) {
+        this.state = state;
+    }
+
+    public synchronized boolean isAutoStart() {
+        return state.autoStart;
+    }
+
+    public synchronized void setAutoStart(boolean autoStart) {
+        state.autoStart = autoStart;
+    }
+
+    public synchronized boolean isResponseCache() {
+        return state.responseCache;
+    }
+
+    public synchronized void setResponseCache(boolean responseCache) {
+        state.responseCache = responseCache;
+    }
+
+    /**
+     * 响应缓存的最大字节数，没有开启时返回0
+     */
+    public synchronized long responseCacheBytes() {
+        return state.responseCache ? state.responseCacheMegabytes * 1024L * 1024L : 0;
+    }
+
+    public synchronized boolean isWarmUp() {
+        return state.warmUp;
+    }
+
+    public synchronized void setWarmUp(boolean warmUp) {
+        state.warmUp = warmUp;
+    }
+
+    public synchronized boolean isBlueGreen() {
+        return state.blueGreen;
+    }
+
+    public synchronized void setBlueGreen(boolean blueGreen) {
+        state.blueGreen = blueGreen;
+    }
+
+    public synchronized boolean isAppCds() {
+        return state.appCds;
+    }
+
+    public synchronized void setAppCds(boolean appCds) {
+        state.appCds = appCds;
+    }
+
+    public synchronized boolean isStableModulesInBaseClassLoader() {
+        return state.stableModulesInBaseClassLoader;
+    }
+
+    public synchronized void setStableModulesInBaseClassLoader(boolean stableModulesInBaseClassLoader) {
+        state.stableModulesInBaseClassLoader = stableModulesInBaseClassLoader;
+    }
+
+    public synchronized boolean isGateway() {
+        return state.gateway;
+    }
+
+    public synchronized void setGateway(boolean gateway) {
+        state.gateway = gateway;
+    }
+
+    public synchronized int getGatewayPort() {
+        return state.gatewayPort;
+    }
+
+    /**
+     * 配置的路径前缀 -> 运行配置名称，格式错误的项忽略
+     */
+    public synchronized Map<String, String> gatewayPrefixes() {
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        for (String item : state.gatewayRoutes.split(",")) {
+            int index = item.indexOf('=');
+            if (index > 0 && item.trim().startsWith("/")) {
+                prefixes.put(item.substring(0, index).trim(), item.substring(index + 1).trim());
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * 预热配置，没有开启时返回null
+     */
+    public synchronized WarmUpSettings warmUpSettings() {
+        if (!state.warmUp) {
+            return null;
+        }
+        return new WarmUpSettings(state.warmUpMaxRequests, state.warmUpParallelism, state.warmUpTimeoutMs,
+                state.warmUpBeforeRelease, patterns(state.warmUpInclude), patterns(state.warmUpExclude));
+    }
+
+    private static List<String> patterns(String patterns) {
+        if (patterns == null) {
+            return List.of();
+        }
+        return Arrays.stream(patterns.split(",")).map(String::trim).filter(p -> !p.isEmpty()).toList();
+    }
+}
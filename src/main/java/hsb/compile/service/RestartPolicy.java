@@ -0,0 +1,101 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.search.GlobalSearchScope;
+import hsb.compile.springboot.CompileChanges;
+import hsb.compile.springboot.OutputKind;
+import hsb.compile.springboot.RestartDecision;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 根据一次编译生成的文件决定每个运行中的项目怎么处理：
+ * 项目运行时classpath里有主代码或配置文件变化才重启（只修改了方法体时先尝试直接替换class），只有静态资源、模板变化时只通知devtools刷新，
+ * 只有测试代码、其他模块的变化或者没有生成文件时什么都不做
+ */
+public final class RestartPolicy {
+
+    private static final Logger LOG = Logger.getInstance(RestartPolicy.class);
+
+    private RestartPolicy() {
+    }
+
+    public static RestartDecision decide(RunningSpringBootProject app, CompileChanges changes) {
+        if (changes.isEmpty()) {
+            return RestartDecision.NOTHING;
+        }
+        Set<String> runtimeRoots = runtimeOutputRoots(app);
+        if (affects(changes, OutputKind.MAIN, runtimeRoots)) {
+            return changes.isMethodBodyOnly() ? RestartDecision.REDEFINE : RestartDecision.RESTART;
+        }
+        if (affects(changes, OutputKind.RESOURCES, runtimeRoots) || affects(changes, OutputKind.TEMPLATES, runtimeRoots)) {
+            return RestartDecision.RELOAD_RESOURCES;
+        }
+        return RestartDecision.NOTHING;
+    }
+
+    /**
+     * @param runtimeRoots 项目运行时的输出目录，null表示不知道，当作所有目录都有关
+     */
+    private static boolean affects(CompileChanges changes, OutputKind kind, Set<String> runtimeRoots) {
+        Set<String> changedRoots = changes.outputRoots(kind);
+        if (changedRoots.isEmpty()) {
+            return false;
+        }
+        if (runtimeRoots == null) {
+            return true;
+        }
+        for (String root : changedRoots) {
+            if (runtimeRoots.contains(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 启动类所在模块以及依赖模块的生产代码输出目录，找不到的时候返回null
+     */
+    private static Set<String> runtimeOutputRoots(RunningSpringBootProject app) {
+        Set<String> cached = app.runtimeOutputRoots;
+        if (cached != null) {
+            return cached;
+        }
+        if (app.mainClass == null) {
+            return null;
+        }
+        try {
+            Set<String> roots = ReadAction.compute(() -> {
+                PsiClass mainClass = JavaPsiFacade.getInstance(app.project)
+                        .findClass(app.mainClass, GlobalSearchScope.projectScope(app.project));
+                Module module = mainClass == null ? null : ModuleUtilCore.findModuleForPsiElement(mainClass);
+                if (module == null) {
+                    return null;
+                }
+                Set<String> paths = new HashSet<>();
+                for (String path : OrderEnumerator.orderEntries(module).withoutSdk().withoutLibraries()
+                        .productionOnly().runtimeOnly().recursively().classes().getPathsList().getPathList()) {
+                    paths.add(CompileChanges.normalize(path));
+                }
+                return paths;
+            });
+            app.runtimeOutputRoots = roots;
+            return roots;
+        } catch (IndexNotReadyException e) {
+            //索引还没有建立，这次按所有目录都有关处理
+            LOG.info("索引未完成，无法确定项目" + app.name + "的输出目录");
+            return null;
+        }
+    }
+}
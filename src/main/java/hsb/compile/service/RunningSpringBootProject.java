@@ -1,12 +1,31 @@
 package hsb.compile.service;
 
+import com.intellij.execution.application.ApplicationConfiguration;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import hsb.compile.TaskTimeLine;
+import hsb.compile.springboot.CompileChanges;
+import hsb.compile.springboot.CompileResult;
+import hsb.compile.springboot.IdeCompileCoordinator;
+import hsb.compile.springboot.OutputKind;
+import hsb.compile.springboot.RestartDecision;
 import hsb.compile.springboot.SpringBootPortForwardingProxy;
+import hsb.compile.springboot.StaticResourceConfig;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -15,21 +34,236 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class RunningSpringBootProject {
 
+    private static final Logger LOG = Logger.getInstance(RunningSpringBootProject.class);
+
+    //重启前等待正在处理的请求完成的最长时间
+    private static final long DRAIN_TIMEOUT_MS = 3000;
+    //通知项目重启并等待回复的超时，项目回复前要对比一遍文件快照
+    private static final long RESTART_REPLY_TIMEOUT_MS = 10_000;
+    //等待项目替换class的回复，超时后改为重启
+    private static final long REDEFINE_TIMEOUT_MS = 5000;
+    //通知重启后等待项目重新监听端口的最长时间
+    private static final long READY_TIMEOUT_MS = 60_000;
+
     Project project;
     TaskTimeLine taskTimeLine;
     public int pid;  //进程pid
     public String mainClass; //启动类
     public String name; //运行配置的名称
-    public List<PortPeer> portPeers; //检测到的端口以及默认分配的端口
+    public volatile List<PortPeer> portPeers; //检测到的端口以及默认分配的端口，只会整体替换
+    public volatile List<Path> staticResourceRoots = List.of(); //启动时classpath里的目录，代理直接从这里返回静态资源
+    volatile StaticResourceConfig staticResourceConfig; //项目上报的静态资源配置，没有上报或者不能直接返回时为null
+    public volatile ApplicationConfiguration configuration; //启动用的运行配置，蓝绿模式复制一份启动新实例
+    public volatile ProcessHandler processHandler; //当前实例的进程，蓝绿切换后停止旧实例用
+    public volatile long startTime; //进程启动的时间，web端口开始监听时计算启动耗时
+    public volatile AppCds.Launch appCds; //这次启动是否使用了AppCDS归档
+    public volatile Set<String> baseClassLoaderRoots = Set.of(); //启动时放进devtools基础类加载器的模块输出目录
 
     public AtomicBoolean stop = new AtomicBoolean(false);
-    private List<SpringBootPortForwardingProxy> nettyProxy = new ArrayList<>();
+    //每次启动（包括devtools重启）的步骤耗时汇总
+    public final StartupProfile startupProfile = new StartupProfile();
+    //项目运行时的输出目录，由 RestartPolicy 第一次用到时计算
+    volatile Set<String> runtimeOutputRoots;
+    //agent上报的web服务器端口，蓝绿模式只切换这个端口的代理
+    volatile int webServerPort;
+    //正在进行的蓝绿切换，再次编译时取消
+    volatile BlueGreenSwitch pendingSwitch;
+    //key是springboot项目的实际端口
+    private final Map<Integer, SpringBootPortForwardingProxy> nettyProxy = new ConcurrentHashMap<>();
+
+
+    public synchronized void createNettyProxy(PortPeer portPeer) throws InterruptedException {
+        //界面按钮和自动开启可能同时触发，项目也可能已经关闭了
+        if (stop.get() || nettyProxy.containsKey(portPeer.realPort)) {
+            return;
+        }
+        SpringBootPortForwardingProxy portForward = new SpringBootPortForwardingProxy(portPeer.proxyPort, "localhost", portPeer.realPort, new IdeCompileCoordinator(project, taskTimeLine), stop);
+        portForward.setStaticResources(staticResourceRoots, staticResourceConfig);
+        ProxySettings settings = ApplicationManager.getApplication().getService(ProxySettings.class);
+        portForward.setResponseCache(settings.responseCacheBytes());
+        portForward.setWarmUp(settings.warmUpSettings());
+        try {
+            portForward.run();
+        } catch (Exception e) {
+            //端口被占用等情况，释放netty的线程
+            portForward.close();
+            throw e;
+        }
+        nettyProxy.put(portPeer.realPort, portForward);
+    }
+
+    /**
+     * 每次启动（包括devtools重启）项目都会重新上报，配置文件可能改了
+     */
+    void setStaticResourceConfig(StaticResourceConfig config) {
+        staticResourceConfig = config;
+        for (SpringBootPortForwardingProxy proxy : nettyProxy.values()) {
+            proxy.setStaticResources(staticResourceRoots, config);
+        }
+    }
+
+    /**
+     * 编译完成后调用。编译成功时由 {@link RestartPolicy} 决定处理方式，只修改了方法体时先让项目直接替换class，
+     * 需要重启时先让所有代理排空正在处理的请求，
+     * 再通知项目重启，最后恢复等待的连接；编译失败时项目不会重启，等待的http请求直接返回编译错误，其他连接立即连接旧的项目。
+     * 返回的future在项目重启完成、所有代理都恢复转发后完成，超时以TimeoutException结束
+     */
+    public CompletableFuture<Void> restartAfterCompile(CompileResult result) {
+        List<SpringBootPortForwardingProxy> proxies = new ArrayList<>(nettyProxy.values());
+        if (!result.isSuccess()) {
+            proxies.forEach(proxy -> proxy.compileFailed(result));
+            return CompletableFuture.completedFuture(null);
+        }
+        RestartDecision decision = RestartPolicy.decide(this, result.getChanges());
+        LOG.info("项目" + name + "编译生成:" + result.getChanges() + "，处理方式:" + decision);
+        SocketService service = ApplicationManager.getApplication().getService(SocketService.class);
+        if (decision == RestartDecision.RELOAD_RESOURCES || decision == RestartDecision.NOTHING) {
+            if (decision == RestartDecision.RELOAD_RESOURCES) {
+                //devtools对静态资源只做livereload，项目不会停止监听端口
+                service.restartAsync(pid, RESTART_REPLY_TIMEOUT_MS);
+            }
+            proxies.forEach(SpringBootPortForwardingProxy::resumeWithoutRestart);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (decision == RestartDecision.REDEFINE && service.supportsRedefine(pid)) {
+            List<CompileChanges.GeneratedClass> classes = result.getChanges().classes();
+            List<String> classNames = classes.stream().map(CompileChanges.GeneratedClass::name).toList();
+            List<String> paths = classes.stream().map(CompileChanges.GeneratedClass::path).toList();
+            return service.redefineAsync(pid, classNames, paths, REDEFINE_TIMEOUT_MS).thenCompose(redefined -> {
+                if (redefined) {
+                    LOG.info("项目" + name + "替换了" + classes.size() + "个class，不需要重启");
+                    proxies.forEach(SpringBootPortForwardingProxy::resumeWithoutRestart);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                LOG.info("项目" + name + "替换class失败，改为重启");
+                return restartOrSwitch(proxies, service, result.getChanges());
+            });
+        }
+        return restartOrSwitch(proxies, service, result.getChanges());
+    }
+
+    private CompletableFuture<Void> restartOrSwitch(List<SpringBootPortForwardingProxy> proxies, SocketService service, CompileChanges changes) {
+        BlueGreenSwitch previous = pendingSwitch;
+        if (previous != null) {
+            //上一次编译启动的新实例还没有切换，已经过时了
+            previous.cancel();
+        }
+        if (!ApplicationManager.getApplication().getService(ProxySettings.class).isBlueGreen() || configuration == null) {
+            warnBaseClassLoaderChanged(changes);
+            return restart(proxies, service);
+        }
+        SpringBootPortForwardingProxy proxy = webServerProxy();
+        if (proxy == null) {
+            LOG.info("项目" + name + "没有找到web端口的代理，改为重启");
+            warnBaseClassLoaderChanged(changes);
+            return restart(proxies, service);
+        }
+        //新实例启动完成之前，请求继续由旧实例处理
+        proxies.forEach(SpringBootPortForwardingProxy::resumeWithoutRestart);
+        BlueGreenSwitch blueGreenSwitch = new BlueGreenSwitch(project, this, proxy);
+        pendingSwitch = blueGreenSwitch;
+        return blueGreenSwitch.start()
+                .orTimeout(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> {
+                    if (e != null) {
+                        LOG.warn("项目" + name + "蓝绿切换没有完成，继续使用旧实例", e);
+                        blueGreenSwitch.cancel();
+                    }
+                    if (pendingSwitch == blueGreenSwitch) {
+                        pendingSwitch = null;
+                    }
+                });
+    }
+
+    /**
+     * 基础类加载器里的模块devtools重启时不会重新加载，只能重新启动项目。
+     * 蓝绿模式启动的新实例会重新计算，不需要提示
+     */
+    private void warnBaseClassLoaderChanged(CompileChanges changes) {
+        Set<String> changed = new HashSet<>(changes.outputRoots(OutputKind.MAIN));
+        changed.retainAll(baseClassLoaderRoots);
+        if (changed.isEmpty()) {
+            return;
+        }
+        String message = "项目" + name + "启动时放进基础类加载器的模块有变化，重启不会加载这些修改，请重新启动项目: " + changed;
+        LOG.warn(message);
+        NotificationGroupManager.getInstance().getNotificationGroup("compile-listener")
+                .createNotification(message, NotificationType.WARNING)
+                .notify(project);
+    }
 
+    /**
+     * web端口的代理，agent没有上报端口时，只有一个代理就是它
+     */
+    SpringBootPortForwardingProxy webServerProxy() {
+        if (webServerPort != 0) {
+            return nettyProxy.get(webServerPort);
+        }
+        return nettyProxy.size() == 1 ? nettyProxy.values().iterator().next() : null;
+    }
 
-    public void createNettyProxy(PortPeer portPeer) throws InterruptedException {
-        SpringBootPortForwardingProxy portForward = new SpringBootPortForwardingProxy(portPeer.proxyPort, "localhost", portPeer.realPort, taskTimeLine, project, stop);
-        nettyProxy.add(portForward);
-        portForward.run();
+    /**
+     * 蓝绿切换后，web端口改为新实例的端口，代理端口不变
+     */
+    synchronized void switchPort(int oldPort, int newPort) {
+        SpringBootPortForwardingProxy proxy = nettyProxy.remove(oldPort);
+        if (proxy != null) {
+            nettyProxy.put(newPort, proxy);
+        }
+        //portPeers是给其他线程读的快照，不能原地修改，和更新端口一样整体替换
+        List<PortPeer> switched = new ArrayList<>(portPeers.size());
+        PortPeer newPeer = null;
+        for (PortPeer portPeer : portPeers) {
+            if (portPeer.realPort == oldPort && newPeer == null) {
+                newPeer = new PortPeer(newPort, portPeer.proxyPort);
+                switched.add(newPeer);
+            } else {
+                switched.add(portPeer);
+            }
+        }
+        if (newPeer != null) {
+            portPeers = List.copyOf(switched);
+            ApplicationManager.getApplication().getService(ProxyPortAllocator.class).switchRealPort(name, oldPort, newPort, newPeer.proxyPort);
+        }
+        webServerPort = newPort;
+    }
+
+    private CompletableFuture<Void> restart(List<SpringBootPortForwardingProxy> proxies, SocketService service) {
+        CompletableFuture<?>[] drains = proxies.stream().map(proxy -> proxy.drain(DRAIN_TIMEOUT_MS)).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(drains)
+                .thenCompose(v -> service.restartAsync(pid, RESTART_REPLY_TIMEOUT_MS))
+                .handle((reply, e) -> {
+                    if (e != null) {
+                        LOG.warn("项目" + name + "(" + pid + ")没有收到重启通知", e);
+                        return SocketService.RestartReply.NOT_SENT;
+                    }
+                    return reply;
+                })
+                .thenCompose(reply -> {
+                    if (reply != SocketService.RestartReply.RESTARTING) {
+                        //没有通知到或者devtools没有发现变化，项目不会重启，恢复后直接连接旧的项目
+                        LOG.info("项目" + name + "(" + pid + ")不会重启:" + reply);
+                        proxies.forEach(SpringBootPortForwardingProxy::resumeWithoutRestart);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return CompletableFuture.allOf(proxies.stream()
+                            .map(SpringBootPortForwardingProxy::resumeConnectAfterCompile)
+                            .toArray(CompletableFuture[]::new));
+                })
+                .orTimeout(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isProxying(PortPeer portPeer) {
+        return nettyProxy.containsKey(portPeer.realPort);
+    }
+
+    public PortPeer findPortPeer(int realPort) {
+        for (PortPeer portPeer : portPeers) {
+            if (portPeer.realPort == realPort) {
+                return portPeer;
+            }
+        }
+        return null;
     }
 
 
@@ -43,10 +277,10 @@ public class RunningSpringBootProject {
     }
 
 
-    public void close() {
+    public synchronized void close() {
         stop.set(true);
         if (!nettyProxy.isEmpty()) {
-            for (SpringBootPortForwardingProxy springBootPortForwardingProxy : nettyProxy) {
+            for (SpringBootPortForwardingProxy springBootPortForwardingProxy : nettyProxy.values()) {
                 springBootPortForwardingProxy.close();
             }
         }
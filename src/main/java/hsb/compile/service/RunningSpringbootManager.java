@@ -1,56 +1,274 @@
 package hsb.compile.service;
 
+import com.intellij.concurrency.ConcurrentCollectionFactory;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessListener;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import hsb.compile.springboot.CompileResult;
+import hsb.compile.springboot.GatewayRoutes;
+import hsb.compile.springboot.SpringBootPortForwardingProxy;
+import hsb.compile.springboot.StaticResourceConfig;
+import org.jetbrains.annotations.NotNull;
 
+import java.net.BindException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * @author hsb
  * @date 2024/2/13 11:18
+ * <p>
+ * 会被EDT、SocketService的accept线程、端口检测线程、进程结束回调同时访问，
+ * 注册表本身是无锁的，单个项目的端口变更在项目对象上串行，监听器统一在EDT上通知
  */
 @Service(Service.Level.PROJECT)
 public final class RunningSpringbootManager implements Disposable {
 
+    private static final Logger LOG = Logger.getInstance(RunningSpringbootManager.class);
 
-    Map<Integer, RunningSpringBootProject> springBootProject = new HashMap<>(4);
+    //代理端口绑定失败后重新分配的次数
+    private static final int BIND_RETRY = 5;
 
+    //没有开启代理的端口消失超过这个时间后移除
+    private static final long PORT_LOST_TIMEOUT_MS = 30_000;
 
-    private final List<Listener> listeners = new ArrayList<>();
+    private final Project project;
+
+    private final ConcurrentIntObjectMap<RunningSpringBootProject> springBootProject = ConcurrentCollectionFactory.createConcurrentIntObjectMap();
+
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+
+    public RunningSpringbootManager(Project project) {
+        this.project = project;
+    }
 
 
     public void addProject(RunningSpringBootProject item) {
         springBootProject.put(item.pid, item);
     }
 
-    public void addProjectPortPeer(int pid, List<PortPeer> portPeers) {
+    public void addProjectPort(int pid, int port) {
         RunningSpringBootProject runningSpringBootProject = springBootProject.get(pid);
         if (runningSpringBootProject==null){
             return;
         }
-        if (portPeers.isEmpty()){
+        synchronized (runningSpringBootProject) {
+            //agent上报的第一个端口是web服务器的端口
+            if (runningSpringBootProject.webServerPort == 0) {
+                runningSpringBootProject.webServerPort = port;
+                if (runningSpringBootProject.startTime != 0) {
+                    AppCds.recordStartup(runningSpringBootProject.name, runningSpringBootProject.appCds,
+                            System.currentTimeMillis() - runningSpringBootProject.startTime);
+                }
+            }
+            //端口可能已经被进程端口检测发现过了，这里只追加新端口
+            if (runningSpringBootProject.findPortPeer(port) != null) {
+                //web端口确定后才能自动开启代理，网关的路由也可能变化
+                autoStartWebServer(runningSpringBootProject);
+                refreshGateway();
+                return;
+            }
+            List<PortPeer> portPeers = new ArrayList<>(runningSpringBootProject.portPeers);
+            portPeers.add(createPortPeer(runningSpringBootProject, port));
+            updatePortPeers(runningSpringBootProject, portPeers);
+        }
+    }
+
+    /**
+     * 用进程当前实际监听的端口刷新，新出现的端口分配代理端口。
+     * devtools重启期间端口会短暂消失，所以消失的端口只标记一下，已经开启代理的端口一直保留，没有代理的端口超时后才移除
+     */
+    public void refreshProjectPorts(int pid, Collection<Integer> ports) {
+        RunningSpringBootProject runningSpringBootProject = springBootProject.get(pid);
+        if (runningSpringBootProject == null) {
             return;
         }
-        if (runningSpringBootProject.portPeers.isEmpty()){
-            runningSpringBootProject.portPeers = portPeers;
-            for (Listener listener : listeners) {
-                listener.addProject(runningSpringBootProject);
+        synchronized (runningSpringBootProject) {
+            long now = System.currentTimeMillis();
+            boolean change = false;
+            List<PortPeer> portPeers = new ArrayList<>(ports.size());
+            for (PortPeer portPeer : runningSpringBootProject.portPeers) {
+                if (ports.contains(portPeer.realPort)) {
+                    if (portPeer.lostTime != 0) {
+                        portPeer.lostTime = 0;
+                        change = true;
+                    }
+                } else if (portPeer.lostTime == 0) {
+                    portPeer.lostTime = now;
+                    change = true;
+                } else if (!runningSpringBootProject.isProxying(portPeer) && now - portPeer.lostTime > PORT_LOST_TIMEOUT_MS) {
+                    allocator().release(runningSpringBootProject.name, portPeer.realPort, portPeer.proxyPort);
+                    change = true;
+                    continue;
+                }
+                portPeers.add(portPeer);
+            }
+            for (int port : ports) {
+                if (runningSpringBootProject.findPortPeer(port) == null) {
+                    portPeers.add(createPortPeer(runningSpringBootProject, port));
+                    change = true;
+                }
             }
-        }else {
-            runningSpringBootProject.portPeers = portPeers;
+            if (change) {
+                updatePortPeers(runningSpringBootProject, portPeers);
+            }
+        }
+    }
+
+    private PortPeer createPortPeer(RunningSpringBootProject runningSpringBootProject, int port) {
+        return new PortPeer(port, allocator().allocate(runningSpringBootProject.name, port));
+    }
+
+    private void updatePortPeers(RunningSpringBootProject runningSpringBootProject, List<PortPeer> portPeers) {
+        //拿到项目对象之后，项目可能已经被关闭了
+        if (runningSpringBootProject.stop.get()) {
+            return;
         }
+        boolean first = runningSpringBootProject.portPeers.isEmpty();
+        //portPeers整体替换，读的一方拿到的总是完整的列表
+        runningSpringBootProject.portPeers = List.copyOf(portPeers);
+        autoStartWebServer(runningSpringBootProject);
+        refreshGateway();
+        if (first) {
+            fireListeners(listener -> listener.addProject(runningSpringBootProject));
+        } else {
+            fireListeners(listener -> listener.updateProject(runningSpringBootProject));
+        }
+    }
 
+    /**
+     * 自动开启web端口的代理，避免项目启动后的前几秒请求直接打到没有代理的端口上。
+     * 只开启agent上报的web端口，livereload、管理端口、JMX等其他端口由用户手动开启
+     */
+    private void autoStartWebServer(RunningSpringBootProject runningSpringBootProject) {
+        if (runningSpringBootProject.webServerPort == 0 || !ApplicationManager.getApplication().getService(ProxySettings.class).isAutoStart()) {
+            return;
+        }
+        PortPeer portPeer = runningSpringBootProject.findPortPeer(runningSpringBootProject.webServerPort);
+        if (portPeer != null && !runningSpringBootProject.isProxying(portPeer)) {
+            try {
+                startNetty(runningSpringBootProject, portPeer);
+            } catch (Exception e) {
+                LOG.warn("自动开启代理失败,端口:" + portPeer.realPort, e);
+            }
+        }
     }
 
     public void closeProject(int pid) {
         RunningSpringBootProject runningSpringBootProject = springBootProject.remove(pid);
-        runningSpringBootProject.close();
-        for (Listener listener : listeners) {
-            listener.closeProject(pid);
+        //进程结束回调和项目关闭可能重复调用
+        if (runningSpringBootProject == null) {
+            return;
+        }
+        synchronized (runningSpringBootProject) {
+            runningSpringBootProject.close();
+            for (PortPeer portPeer : runningSpringBootProject.portPeers) {
+                allocator().release(runningSpringBootProject.name, portPeer.realPort, portPeer.proxyPort);
+            }
+        }
+        refreshGateway();
+        fireListeners(listener -> listener.closeProject(pid));
+    }
+
+    /**
+     * 项目启动完成后上报的启动步骤耗时
+     */
+    public void setStaticResources(int pid, StaticResourceConfig config) {
+        RunningSpringBootProject runningSpringBootProject = springBootProject.get(pid);
+        if (runningSpringBootProject != null) {
+            runningSpringBootProject.setStaticResourceConfig(config);
+        }
+    }
+
+    public void addStartupSteps(int pid, long millis, List<StartupProfile.Step> steps) {
+        RunningSpringBootProject runningSpringBootProject = springBootProject.get(pid);
+        if (runningSpringBootProject == null) {
+            return;
+        }
+        runningSpringBootProject.startupProfile.add(millis, steps);
+        LOG.info("项目" + runningSpringBootProject.name + "启动耗时" + millis + "ms，上报了" + steps.size() + "个启动步骤");
+    }
+
+    /**
+     * 所有运行中的项目启动步骤耗时排行
+     */
+    public String startupReport(int limit) {
+        StringBuilder report = new StringBuilder();
+        for (RunningSpringBootProject runningSpringBootProject : springBootProject.values()) {
+            report.append(runningSpringBootProject.name).append('(').append(runningSpringBootProject.pid).append(")\n")
+                    .append(runningSpringBootProject.startupProfile.report(limit));
+        }
+        return report.isEmpty() ? "没有运行中的项目" : report.toString();
+    }
+
+    /**
+     * 蓝绿模式启动的新实例进程已经启动，交给原来实例正在进行的切换；切换已经取消时直接停止新实例
+     */
+    public void shadowStarted(int ownerPid, int pid, ProcessHandler handler) {
+        RunningSpringBootProject runningSpringBootProject = springBootProject.get(ownerPid);
+        BlueGreenSwitch blueGreenSwitch = runningSpringBootProject == null ? null : runningSpringBootProject.pendingSwitch;
+        if (blueGreenSwitch == null) {
+            handler.destroyProcess();
+            return;
         }
+        handler.addProcessListener(new ProcessListener() {
+            @Override
+            public void processTerminated(@NotNull ProcessEvent event) {
+                //切换前结束是启动失败，切换后就是项目本身结束了
+                blueGreenSwitch.shadowTerminated();
+                closeProject(pid);
+            }
+        });
+        blueGreenSwitch.shadowStarted(pid, handler);
+    }
+
+    /**
+     * 蓝绿切换完成，项目改为新实例的pid，web端口改为新实例的端口，代理端口不变。
+     * 旧实例结束时按旧pid关闭项目，已经找不到项目，不会影响新实例
+     */
+    void switchInstance(RunningSpringBootProject runningSpringBootProject, int oldPid, int newPid, ProcessHandler handler, int oldPort, int newPort) {
+        synchronized (runningSpringBootProject) {
+            if (runningSpringBootProject.stop.get()) {
+                return;
+            }
+            springBootProject.remove(oldPid);
+            runningSpringBootProject.pid = newPid;
+            runningSpringBootProject.processHandler = handler;
+            runningSpringBootProject.switchPort(oldPort, newPort);
+            springBootProject.put(newPid, runningSpringBootProject);
+        }
+        if (ProcessPortDiscovery.isSupported()) {
+            new ProcessPortDiscovery(project, newPid, runningSpringBootProject.stop).start();
+        }
+        refreshGateway();
+        //界面上的项目是按pid找的，先移除再重新添加
+        fireListeners(listener -> {
+            listener.closeProject(oldPid);
+            listener.addProject(runningSpringBootProject);
+        });
+    }
+
+    /**
+     * 监听器都是操作界面的，统一放到EDT上执行
+     */
+    private void fireListeners(Consumer<Listener> event) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            for (Listener listener : listeners) {
+                event.accept(listener);
+            }
+        }, project.getDisposed());
     }
 
     public void addListener(Listener listener) {
@@ -60,18 +278,80 @@ public final class RunningSpringbootManager implements Disposable {
 
     @Override
     public void dispose() {
-
+        for (int pid : springBootProject.keys()) {
+            closeProject(pid);
+        }
+        ApplicationManager.getApplication().getService(GatewayService.class).update(project, List.of());
     }
 
 
-    public void startNetty(int pid, PortPeer portPeer) throws InterruptedException {
+    public void startNetty(int pid, PortPeer portPeer) throws Exception {
         RunningSpringBootProject runningSpringBootProject = springBootProject.get(pid);
         if (runningSpringBootProject!=null){
-            runningSpringBootProject.createNettyProxy(portPeer);
+            synchronized (runningSpringBootProject) {
+                startNetty(runningSpringBootProject, portPeer);
+            }
+            refreshGateway();
+        }
+    }
+
+    /**
+     * 把这个idea项目运行中的项目上报给应用级别的网关，由 {@link GatewayService} 和其他idea项目的一起生成路由表。
+     * 路由指向项目web端口的代理，没有开启代理的项目不在路由里
+     */
+    public synchronized void refreshGateway() {
+        List<GatewayRoutes.Route> routes = new ArrayList<>();
+        for (RunningSpringBootProject runningSpringBootProject : springBootProject.values()) {
+            SpringBootPortForwardingProxy proxy = runningSpringBootProject.webServerProxy();
+            if (proxy == null || runningSpringBootProject.stop.get()) {
+                continue;
+            }
+            routes.add(new GatewayRoutes.Route(runningSpringBootProject.name, proxy.getLocalPort(), proxy));
+        }
+        ApplicationManager.getApplication().getService(GatewayService.class).update(project, routes);
+    }
+
+    /**
+     * 开启代理，代理端口被占用的时候自动换一个端口，成功后记住这个运行配置使用的代理端口
+     */
+    private void startNetty(RunningSpringBootProject runningSpringBootProject, PortPeer portPeer) throws Exception {
+        ProxyPortAllocator allocator = allocator();
+        for (int i = 0; ; i++) {
+            try {
+                runningSpringBootProject.createNettyProxy(portPeer);
+                allocator.remember(runningSpringBootProject.name, portPeer.realPort, portPeer.proxyPort);
+                return;
+            } catch (Exception e) {
+                if (!(e instanceof BindException) || i >= BIND_RETRY) {
+                    throw e;
+                }
+                int failedPort = portPeer.proxyPort;
+                portPeer.proxyPort = allocator.reallocate(runningSpringBootProject.name, portPeer.realPort, failedPort);
+                LOG.warn("代理端口" + failedPort + "被占用，改用" + portPeer.proxyPort);
+            }
+        }
+    }
+
+    private static ProxyPortAllocator allocator() {
+        return ApplicationManager.getApplication().getService(ProxyPortAllocator.class);
+    }
+
+    /**
+     * 编译完成，同时通知所有运行中的项目，互不等待。返回的future在所有项目都重启完成后完成，
+     * 某个项目超时或失败只记录日志，不影响其他项目
+     */
+    public CompletableFuture<Void> afterCompile(CompileResult result) {
+        List<CompletableFuture<Void>> restarts = new ArrayList<>();
+        for (RunningSpringBootProject runningSpringBootProject : springBootProject.values()) {
+            restarts.add(runningSpringBootProject.restartAfterCompile(result).exceptionally(e -> {
+                LOG.warn("项目" + runningSpringBootProject.name + "(" + runningSpringBootProject.pid + ")重启未完成", e);
+                return null;
+            }));
         }
+        return CompletableFuture.allOf(restarts.toArray(CompletableFuture[]::new));
     }
 
     public int[] getAllPid() {
-        return springBootProject.keySet().stream().mapToInt(x -> x.intValue()).toArray();
+        return springBootProject.keys();
     }
 }
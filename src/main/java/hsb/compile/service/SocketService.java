@@ -1,124 +1,350 @@
 package hsb.compile.service;
 
 import com.intellij.openapi.Disposable;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import hsb.compile.springboot.StaticResourceConfig;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author hsb
  * @date 2024/2/9 1:12
+ * <p>
+ * 每个idea实例监听自己的地址，启动springboot项目的时候通过系统属性把地址传给项目，
+ * 这样多个idea同时运行时，项目只会连接启动它的那个idea。
+ * linux下优先使用unix domain socket，省掉本地tcp协议栈的开销，tcp作为备用
  */
 
 @Service
 public final class SocketService implements Disposable {
 
-    ServerSocket serverSocket;
+    private static final Logger LOG = Logger.getInstance(SocketService.class);
 
-    int port = 60012;
-    Thread acceptThread;
+    //项目一次最多上报的启动步骤数量
+    private static final int MAX_STARTUP_STEPS = 1000;
+    private static final int MAX_STATIC_LOCATIONS = 100;
+    //连接后读取消息的最长时间，超时关闭连接，避免卡住的项目占着线程
+    private static final long READ_TIMEOUT_MS = 5000;
 
-    Map<Integer, Socket> registerProject = new ConcurrentHashMap<>();
+    /**
+     * 传给springboot项目的系统属性，值是逗号分隔的地址列表，格式见 {@link ControlChannels}
+     */
+    public static final String ENDPOINT_PROPERTY = "hsb.compile.endpoint";
+
+    private final List<ServerSocketChannel> servers = new ArrayList<>(2);
+    private final List<Thread> acceptThreads = new ArrayList<>(2);
+    private Path socketDir;
+
+    private String endpoint;
+
+    Map<Integer, SocketChannel> registerProject = new ConcurrentHashMap<>();
+    //项目注册时上报的能力，见 ControlChannels.CAPABILITY_*
+    Map<Integer, Integer> capabilities = new ConcurrentHashMap<>();
+    //替换class超时后还没读到的回复数量，按连接记录，项目重新注册后作废
+    private final Map<SocketChannel, Integer> staleReplies = new ConcurrentHashMap<>();
 
     public SocketService() {
+        List<String> endpoints = new ArrayList<>(2);
+        if (SystemInfo.isLinux) {
+            try {
+                socketDir = Files.createTempDirectory("compile-listener");
+                ServerSocketChannel server = ControlChannels.bindUnix(socketDir.resolve("control.sock"));
+                servers.add(server);
+                endpoints.add(ControlChannels.endpoint(server));
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.warn("unix domain socket监听失败，使用tcp", e);
+            }
+        }
         try {
-            serverSocket = new ServerSocket(port);
+            //端口交给系统分配，只监听本地回环地址
+            ServerSocketChannel server = ControlChannels.bindTcp();
+            servers.add(server);
+            endpoints.add(ControlChannels.endpoint(server));
+        } catch (IOException e) {
+            LOG.error("控制端口监听失败", e);
+        }
+        endpoint = endpoints.isEmpty() ? null : String.join(",", endpoints);
+        LOG.info("控制通道地址:" + endpoint);
 
+        for (ServerSocketChannel server : servers) {
             // 可以在一个新的线程中运行您的 Socket 服务，以避免阻塞 UI 线程
-            acceptThread = new Thread(() -> {
-                System.out.println("开始监听");
-                while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                        Socket socket = serverSocket.accept();
-
-
-                        DataInputStream in= new DataInputStream(socket.getInputStream());
-                        int type = in.readInt();
-
-                        if (type==1){
-                            //更新后的通知socket
-                            int pid = in.readInt();
-
-                            Socket oldSocket = registerProject.get(pid);
-                            if (oldSocket != null) {
-                                oldSocket.close();
-                            }
-                            registerProject.put(pid, socket);
-
-                        }else if (type==2){
-                            //用来发送进程的web端口号
-                            int pid = in.readInt();
-                            int port = in.readInt();
-
-                            //通知进程对应的端口
-
-                            //ApplicationManager.getApplication().p
-
-
-                            @NotNull Project[] openProjects = ProjectManager.getInstance().getOpenProjects();
-                            for (Project openProject : openProjects) {
-                                RunningSpringbootManager service = openProject.getService(RunningSpringbootManager.class);
-                                //service.
-                                List<PortPeer> portPeers = new ArrayList<>(1);
-                                portPeers.add(new PortPeer(port, 8080));
-                                service.addProjectPortPeer(pid,portPeers);
-                            }
-                            socket.close();
-                        }
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        break;
-                    }
-                }
-            });
+            Thread acceptThread = new Thread(() -> accept(server), "compile-listener-accept");
+            acceptThread.setDaemon(true);
             acceptThread.start();
+            acceptThreads.add(acceptThread);
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        System.out.println("开始监听");
+        while (!Thread.currentThread().isInterrupted()) {
+            SocketChannel socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isOpen()) {
+                    LOG.warn("控制端口接收连接失败", e);
+                }
+                break;
+            }
+            //读取是阻塞的，一个卡住的项目不能影响其他项目注册、上报端口
+            AppExecutorUtil.getAppExecutorService().execute(() -> handleWithDeadline(socket));
+        }
+    }
 
+    private void handleWithDeadline(SocketChannel socket) {
+        AtomicBoolean finished = new AtomicBoolean(false);
+        //阻塞的SocketChannel不支持读超时，到时间还没读完就关闭连接，读取会以异常结束
+        ScheduledFuture<?> deadline = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            if (finished.compareAndSet(false, true)) {
+                LOG.info("控制通道" + READ_TIMEOUT_MS + "ms内没有发完消息，关闭连接");
+                closeQuietly(socket);
+            }
+        }, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            handle(socket);
         } catch (IOException e) {
-            e.printStackTrace();
+            //客户端发送一半就断开了
+            LOG.debug("控制通道读取失败", e);
+            closeQuietly(socket);
+        } finally {
+            //超时关闭的注册连接，send时发现已经关闭会移除
+            finished.set(true);
+            deadline.cancel(false);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handle(SocketChannel socket) throws IOException {
+        int type = ControlChannels.readInt(socket);
+
+        if (type == ControlChannels.TYPE_REGISTER || type == ControlChannels.TYPE_REGISTER_WITH_CAPABILITIES) {
+            //更新后的通知socket
+            int pid = ControlChannels.readInt(socket);
+            int flags = type == ControlChannels.TYPE_REGISTER_WITH_CAPABILITIES ? ControlChannels.readInt(socket) : 0;
+            capabilities.put(pid, flags);
+            //之后的命令和回复都带超时，需要非阻塞模式
+            socket.configureBlocking(false);
+
+            SocketChannel oldSocket = registerProject.put(pid, socket);
+            if (oldSocket != null) {
+                staleReplies.remove(oldSocket);
+                oldSocket.close();
+            }
+
+        }else if (type == ControlChannels.TYPE_PORT){
+            //用来发送进程的web端口号
+            int pid = ControlChannels.readInt(socket);
+            int port = ControlChannels.readInt(socket);
+
+            //通知进程对应的端口
+            @NotNull Project[] openProjects = ProjectManager.getInstance().getOpenProjects();
+            for (Project openProject : openProjects) {
+                RunningSpringbootManager service = openProject.getService(RunningSpringbootManager.class);
+                service.addProjectPort(pid, port);
+            }
+            socket.close();
+        }else if (type == ControlChannels.TYPE_STARTUP){
+            //项目启动完成后发送的启动步骤耗时
+            int pid = ControlChannels.readInt(socket);
+            int millis = ControlChannels.readInt(socket);
+            int count = ControlChannels.readInt(socket);
+            if (count < 0 || count > MAX_STARTUP_STEPS) {
+                throw new IOException("启动步骤数量错误:" + count);
+            }
+            List<StartupProfile.Step> steps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                steps.add(new StartupProfile.Step(ControlChannels.readString(socket), ControlChannels.readLong(socket)));
+            }
+            socket.close();
+            for (Project openProject : ProjectManager.getInstance().getOpenProjects()) {
+                openProject.getService(RunningSpringbootManager.class).addStartupSteps(pid, millis, steps);
+            }
+        }else if (type == ControlChannels.TYPE_STATIC_RESOURCES){
+            //主web服务启动后发送的静态资源配置
+            int pid = ControlChannels.readInt(socket);
+            String contextPath = ControlChannels.readString(socket);
+            String pathPattern = ControlChannels.readString(socket);
+            boolean ownFilters = ControlChannels.readInt(socket) != 0;
+            int count = ControlChannels.readInt(socket);
+            if (count < 0 || count > MAX_STATIC_LOCATIONS) {
+                throw new IOException("静态资源位置数量错误:" + count);
+            }
+            List<String> locations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                locations.add(ControlChannels.readString(socket));
+            }
+            socket.close();
+            //项目自己的过滤器（比如spring security）可能拦截静态资源，代理直接返回会绕过它们
+            StaticResourceConfig config = ownFilters ? null : StaticResourceConfig.of(contextPath, pathPattern, locations);
+            if (config == null) {
+                LOG.info("项目" + pid + "的静态资源不由代理直接返回，过滤器:" + ownFilters + "，static-path-pattern:" + pathPattern + "，位置:" + locations);
+            }
+            for (Project openProject : ProjectManager.getInstance().getOpenProjects()) {
+                openProject.getService(RunningSpringbootManager.class).setStaticResources(pid, config);
+            }
+        }else {
+            socket.close();
         }
     }
 
+    /**
+     * 项目连接idea的地址，监听失败的时候返回null
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+
+    /**
+     * 项目对重启命令的回复
+     */
+    public enum RestartReply {
+        //项目发现了变化，正在重启
+        RESTARTING,
+        //项目没有发现变化，不会重启
+        NO_CHANGE,
+        //没有通知到或者没有回复，项目继续运行
+        NOT_SENT
+    }
 
+    /**
+     * 项目加载了agent，可以直接替换class
+     */
+    public boolean supportsRedefine(int pid) {
+        return (capabilities.getOrDefault(pid, 0) & ControlChannels.CAPABILITY_REDEFINE) != 0;
+    }
 
-    public void send(int pid) {
-        try{
-            Socket socket = registerProject.get(pid);
+    /**
+     * 在线程池中通知项目重启，每个项目互不影响。项目对比文件快照后回复是否重启，发送和等待回复都受timeoutMs限制
+     */
+    public CompletableFuture<RestartReply> restartAsync(int pid, long timeoutMs) {
+        return CompletableFuture.supplyAsync(() -> {
+            SocketChannel socket = registeredSocket(pid);
             if (socket == null) {
-                return;
+                return RestartReply.NOT_SENT;
             }
-            if (socket.isClosed()) {
-                registerProject.remove(pid);
-                return;
+            try {
+                int reply = command(pid, socket, ByteBuffer.wrap(new byte[]{ControlChannels.COMMAND_RESTART}), timeoutMs);
+                if (reply < 0) {
+                    return RestartReply.NOT_SENT;
+                }
+                return reply == 1 ? RestartReply.RESTARTING : RestartReply.NO_CHANGE;
+            } catch (IOException e) {
+                LOG.warn("通知项目" + pid + "重启失败", e);
+                return RestartReply.NOT_SENT;
             }
-            //随便写点
-            OutputStream outputStream = socket.getOutputStream();
-            outputStream.write(new byte[1]);
-            outputStream.flush();
-        } catch (Exception ignored) {
+        }, AppExecutorUtil.getAppExecutorService());
+    }
 
+    /**
+     * 在线程池中通知项目替换class，返回项目是否替换成功。项目不支持、发送失败或超时都返回false，由调用方改为重启
+     */
+    public CompletableFuture<Boolean> redefineAsync(int pid, List<String> classNames, List<String> paths, long timeoutMs) {
+        if (!supportsRedefine(pid)) {
+            return CompletableFuture.completedFuture(false);
         }
+        return CompletableFuture.supplyAsync(() -> {
+            SocketChannel socket = registeredSocket(pid);
+            if (socket == null) {
+                return false;
+            }
+            try {
+                return command(pid, socket, ControlChannels.redefineCommand(classNames, paths), timeoutMs) == 1;
+            } catch (IOException e) {
+                LOG.warn("通知项目" + pid + "替换class失败", e);
+                return false;
+            }
+        }, AppExecutorUtil.getAppExecutorService());
+    }
+
+    private SocketChannel registeredSocket(int pid) {
+        SocketChannel socket = registerProject.get(pid);
+        if (socket != null && !socket.isOpen()) {
+            registerProject.remove(pid, socket);
+            staleReplies.remove(socket);
+            return null;
+        }
+        return socket;
+    }
+
+    /**
+     * 发送一个命令并读取一个字节的回复，项目关闭连接时返回-1。写入和等待回复都受timeoutMs限制，
+     * 超时后项目迟到的回复记在 {@link #staleReplies}，下次发送命令前先读掉
+     */
+    private int command(int pid, SocketChannel socket, ByteBuffer command, long timeoutMs) throws IOException {
+        //同一个项目的命令和回复不能交叉
+        synchronized (socket) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            //上次超时的回复，不读掉会被当成这次的结果
+            int stale = staleReplies.getOrDefault(socket, 0);
+            for (; stale > 0; stale--) {
+                if (ControlChannels.readByte(socket, remainingMillis(deadline)) < 0) {
+                    return -1;
+                }
+                staleReplies.put(socket, stale - 1);
+            }
+            staleReplies.remove(socket);
+            try {
+                ControlChannels.writeFully(socket, command, remainingMillis(deadline));
+            } catch (SocketTimeoutException e) {
+                //命令只写了一部分，项目会把后面的命令当成这次的内容，只能断开
+                registerProject.remove(pid, socket);
+                closeQuietly(socket);
+                throw e;
+            }
+            try {
+                return ControlChannels.readByte(socket, remainingMillis(deadline));
+            } catch (SocketTimeoutException e) {
+                staleReplies.merge(socket, 1, Integer::sum);
+                throw e;
+            }
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
     }
 
 
     @Override
     public void dispose() {
-        try {
-            serverSocket.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        for (Thread acceptThread : acceptThreads) {
+            acceptThread.interrupt();
         }
-        acceptThread.interrupt();
 
 
         registerProject.values().forEach(socket -> {
@@ -129,6 +355,13 @@ public final class SocketService implements Disposable {
             }
         });
 
+        if (socketDir != null) {
+            try {
+                Files.deleteIfExists(socketDir.resolve("control.sock"));
+                Files.deleteIfExists(socketDir);
+            } catch (IOException e) {
 
+            }
+        }
     }
 }
@@ -0,0 +1,73 @@
+package hsb.compile.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 汇总项目每次启动（包括devtools重启）上报的启动步骤耗时，按每次启动的平均耗时排序，找出拖慢重启的bean。
+ * 项目端只上报最慢的一部分步骤，某次没有上报的步骤按0计算
+ */
+public class StartupProfile {
+
+    //每个步骤最多汇总的不同名称数量，超过后忽略新出现的步骤
+    private static final int MAX_LABELS = 2000;
+
+    public record Step(String label, long nanos) {
+    }
+
+    private static class Total {
+        long nanos;
+        long maxNanos;
+    }
+
+    private final Map<String, Total> totals = new HashMap<>();
+    private final List<Long> startupMillis = new ArrayList<>();
+
+    public synchronized void add(long millis, List<Step> steps) {
+        startupMillis.add(millis);
+        for (Step step : steps) {
+            Total total = totals.get(step.label());
+            if (total == null) {
+                if (totals.size() >= MAX_LABELS) {
+                    continue;
+                }
+                total = new Total();
+                totals.put(step.label(), total);
+            }
+            total.nanos += step.nanos();
+            total.maxNanos = Math.max(total.maxNanos, step.nanos());
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return startupMillis.isEmpty();
+    }
+
+    /**
+     * 启动次数、平均启动耗时，以及平均耗时最多的limit个步骤
+     */
+    public synchronized String report(int limit) {
+        if (startupMillis.isEmpty()) {
+            return "还没有收到启动步骤\n";
+        }
+        int restarts = startupMillis.size();
+        long average = startupMillis.stream().mapToLong(Long::longValue).sum() / restarts;
+        long last = startupMillis.get(restarts - 1);
+        StringBuilder report = new StringBuilder();
+        report.append("启动").append(restarts).append("次，平均").append(average).append("ms，最近一次").append(last).append("ms\n");
+        totals.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().nanos, a.getValue().nanos))
+                .limit(limit)
+                .forEach(entry -> report.append("    ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(entry.getValue().nanos / restarts)).append("ms（最多")
+                        .append(TimeUnit.NANOSECONDS.toMillis(entry.getValue().maxNanos)).append("ms） ")
+                        .append(entry.getKey()).append('\n'));
+        return report.toString();
+    }
+}
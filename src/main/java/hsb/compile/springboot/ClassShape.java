@@ -0,0 +1,350 @@
+package hsb.compile.springboot;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * class文件的结构：父类、接口、字段、方法签名以及jvm重定义时不允许修改的几个类属性，不包含普通方法的方法体。
+ * 前后两次编译结构相同，说明只修改了方法体，可以用 Instrumentation.redefineClasses 替换，不需要重启。
+ * <p>
+ * 重定义允许但替换后不会生效的修改也算结构变化：注解（spring启动时读取的映射、事务、定时任务等）、泛型签名、
+ * 常量字段的值，以及静态初始化和构造方法的代码（已经创建的对象不会再执行）。
+ * 常量池的下标每次编译都可能变，这些内容都解析成常量的值再比较
+ */
+public final class ClassShape {
+
+    private static final Set<String> ANNOTATIONS = Set.of("RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations");
+    private static final Set<String> PARAMETER_ANNOTATIONS = Set.of("RuntimeVisibleParameterAnnotations", "RuntimeInvisibleParameterAnnotations");
+
+    private final String shape;
+
+    private ClassShape(String shape) {
+        this.shape = shape;
+    }
+
+    public static ClassShape read(byte[] classFile) throws IOException {
+        return new ClassShape(new Reader(classFile).read());
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private int[] tags;
+        //常量引用的第一个、第二个下标，或者MethodHandle的类型
+        private int[] first;
+        private int[] second;
+        //Utf8、Integer、Float、Long、Double的值
+        private Object[] values;
+
+        Reader(byte[] classFile) {
+            in = new DataInputStream(new ByteArrayInputStream(classFile));
+        }
+
+        String read() throws IOException {
+            if (in.readInt() != 0xCAFEBABE) {
+                throw new IOException("不是class文件");
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            readConstantPool();
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(in.readUnsignedShort()).append(' ');
+            sb.append(className(in.readUnsignedShort())).append(" extends ");
+            sb.append(className(in.readUnsignedShort())).append(" implements ");
+            int interfaces = in.readUnsignedShort();
+            for (int i = 0; i < interfaces; i++) {
+                sb.append(className(in.readUnsignedShort())).append(',');
+            }
+            sb.append("\nfields ").append(members());
+            sb.append("\nmethods ").append(members());
+
+            //类属性里关心重定义时不能变的部分和注解、泛型签名，其他属性（源文件等）不影响
+            TreeSet<String> restricted = new TreeSet<>();
+            int attributes = in.readUnsignedShort();
+            for (int i = 0; i < attributes; i++) {
+                String name = utf8(in.readUnsignedShort());
+                int length = in.readInt();
+                if ("NestHost".equals(name)) {
+                    restricted.add(name + "=" + className(in.readUnsignedShort()));
+                } else if ("NestMembers".equals(name) || "PermittedSubclasses".equals(name)) {
+                    int count = in.readUnsignedShort();
+                    TreeSet<String> classes = new TreeSet<>();
+                    for (int j = 0; j < count; j++) {
+                        classes.add(className(in.readUnsignedShort()));
+                    }
+                    restricted.add(name + "=" + classes);
+                } else if ("Record".equals(name)) {
+                    restricted.add(name + "=" + length);
+                    in.skipBytes(length);
+                } else if ("Signature".equals(name)) {
+                    restricted.add(name + "=" + utf8(in.readUnsignedShort()));
+                } else if (ANNOTATIONS.contains(name)) {
+                    restricted.add(name + "=" + annotations());
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            sb.append("\nattributes ").append(restricted);
+            return sb.toString();
+        }
+
+        private void readConstantPool() throws IOException {
+            int poolSize = in.readUnsignedShort();
+            tags = new int[poolSize];
+            first = new int[poolSize];
+            second = new int[poolSize];
+            values = new Object[poolSize];
+            for (int i = 1; i < poolSize; i++) {
+                int tag = in.readUnsignedByte();
+                tags[i] = tag;
+                switch (tag) {
+                    case 1 -> values[i] = in.readUTF();
+                    case 3 -> values[i] = in.readInt();
+                    case 4 -> values[i] = in.readFloat();
+                    case 5, 6 -> {
+                        values[i] = tag == 5 ? (Object) in.readLong() : (Object) in.readDouble();
+                        //long和double占两个位置
+                        i++;
+                    }
+                    case 7, 8, 16, 19, 20 -> first[i] = in.readUnsignedShort();
+                    case 15 -> {
+                        first[i] = in.readUnsignedByte();
+                        second[i] = in.readUnsignedShort();
+                    }
+                    case 9, 10, 11, 12, 17, 18 -> {
+                        first[i] = in.readUnsignedShort();
+                        second[i] = in.readUnsignedShort();
+                    }
+                    default -> throw new IOException("未知的常量类型:" + tag);
+                }
+            }
+        }
+
+        /**
+         * 常量解析成和下标无关的文本
+         */
+        private String constant(int index) {
+            if (index <= 0 || index >= tags.length) {
+                return "";
+            }
+            return switch (tags[index]) {
+                case 1, 3, 4, 5, 6 -> String.valueOf(values[index]);
+                case 7 -> "class " + utf8(first[index]);
+                case 8 -> '"' + utf8(first[index]) + '"';
+                case 9, 10, 11 -> constant(first[index]) + "." + constant(second[index]);
+                case 12 -> utf8(first[index]) + ":" + utf8(second[index]);
+                case 15 -> "handle" + first[index] + " " + constant(second[index]);
+                case 16, 19, 20 -> utf8(first[index]);
+                case 17, 18 -> "indy" + first[index] + " " + constant(second[index]);
+                default -> "";
+            };
+        }
+
+        private String utf8(int index) {
+            return index == 0 ? "" : (String) values[index];
+        }
+
+        private String className(int index) {
+            return index == 0 ? "" : utf8(first[index]);
+        }
+
+        /**
+         * 字段或方法：访问标记、名称、描述符和影响运行时的属性，按名称排序，jvm不要求顺序一致
+         */
+        private String members() throws IOException {
+            int count = in.readUnsignedShort();
+            List<String> members = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int access = in.readUnsignedShort();
+                String name = utf8(in.readUnsignedShort());
+                String descriptor = utf8(in.readUnsignedShort());
+                TreeSet<String> details = new TreeSet<>();
+                int attributes = in.readUnsignedShort();
+                for (int j = 0; j < attributes; j++) {
+                    String attribute = utf8(in.readUnsignedShort());
+                    int length = in.readInt();
+                    if ("ConstantValue".equals(attribute)) {
+                        details.add(attribute + "=" + constant(in.readUnsignedShort()));
+                    } else if ("Signature".equals(attribute)) {
+                        details.add(attribute + "=" + utf8(in.readUnsignedShort()));
+                    } else if (ANNOTATIONS.contains(attribute)) {
+                        details.add(attribute + "=" + annotations());
+                    } else if (PARAMETER_ANNOTATIONS.contains(attribute)) {
+                        StringBuilder parameters = new StringBuilder();
+                        int parameterCount = in.readUnsignedByte();
+                        for (int k = 0; k < parameterCount; k++) {
+                            parameters.append(annotations()).append(';');
+                        }
+                        details.add(attribute + "=" + parameters);
+                    } else if ("AnnotationDefault".equals(attribute)) {
+                        StringBuilder value = new StringBuilder();
+                        elementValue(value);
+                        details.add(attribute + "=" + value);
+                    } else if ("Code".equals(attribute) && ("<clinit>".equals(name) || "<init>".equals(name))) {
+                        details.add(attribute + "=" + code());
+                    } else {
+                        in.skipBytes(length);
+                    }
+                }
+                members.add(name + descriptor + "/" + access + (details.isEmpty() ? "" : details.toString()));
+            }
+            return new TreeSet<>(members).toString();
+        }
+
+        private String annotations() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                annotation(sb);
+            }
+            return sb.toString();
+        }
+
+        private void annotation(StringBuilder sb) throws IOException {
+            sb.append('@').append(utf8(in.readUnsignedShort())).append('(');
+            int pairs = in.readUnsignedShort();
+            for (int i = 0; i < pairs; i++) {
+                sb.append(utf8(in.readUnsignedShort())).append('=');
+                elementValue(sb);
+                sb.append(',');
+            }
+            sb.append(')');
+        }
+
+        private void elementValue(StringBuilder sb) throws IOException {
+            int tag = in.readUnsignedByte();
+            sb.append((char) tag);
+            switch (tag) {
+                case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z', 's', 'c' -> sb.append(constant(in.readUnsignedShort()));
+                case 'e' -> sb.append(utf8(in.readUnsignedShort())).append('.').append(utf8(in.readUnsignedShort()));
+                case '@' -> annotation(sb);
+                case '[' -> {
+                    int count = in.readUnsignedShort();
+                    sb.append('{');
+                    for (int i = 0; i < count; i++) {
+                        elementValue(sb);
+                        sb.append(',');
+                    }
+                    sb.append('}');
+                }
+                default -> throw new IOException("未知的注解值类型:" + (char) tag);
+            }
+        }
+
+        /**
+         * 代码的摘要，引用常量池的指令换成常量的值，行号等调试信息不参与
+         */
+        private String code() throws IOException {
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            StringBuilder sb = new StringBuilder();
+            for (int pc = 0; pc < code.length; ) {
+                int op = code[pc] & 0xff;
+                int length = instructionLength(code, pc);
+                sb.append(op);
+                if (op == 0x12) {
+                    sb.append(' ').append(constant(code[pc + 1] & 0xff));
+                } else if (referencesConstant(op)) {
+                    sb.append(' ').append(constant(((code[pc + 1] & 0xff) << 8) | (code[pc + 2] & 0xff)));
+                    for (int k = pc + 3; k < pc + length; k++) {
+                        sb.append(',').append(code[k]);
+                    }
+                } else {
+                    for (int k = pc + 1; k < pc + length; k++) {
+                        sb.append(',').append(code[k]);
+                    }
+                }
+                sb.append(';');
+                pc += length;
+            }
+            int exceptions = in.readUnsignedShort();
+            for (int i = 0; i < exceptions; i++) {
+                sb.append("try ").append(in.readUnsignedShort()).append(',').append(in.readUnsignedShort())
+                        .append(',').append(in.readUnsignedShort()).append(' ').append(className(in.readUnsignedShort())).append(';');
+            }
+            int attributes = in.readUnsignedShort();
+            for (int i = 0; i < attributes; i++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+                return HexFormat.of().formatHex(digest);
+            } catch (NoSuchAlgorithmException e) {
+                return sb.toString();
+            }
+        }
+
+        /**
+         * 操作数是两个字节常量池下标的指令：ldc_w、ldc2_w、字段和方法调用、new、anewarray、checkcast、instanceof、multianewarray
+         */
+        private static boolean referencesConstant(int op) {
+            return op == 0x13 || op == 0x14 || (op >= 0xb2 && op <= 0xbb) || op == 0xbd || op == 0xc0 || op == 0xc1 || op == 0xc5;
+        }
+
+        private static int instructionLength(byte[] code, int pc) {
+            int op = code[pc] & 0xff;
+            if (op == 0xaa || op == 0xab) {
+                //tableswitch、lookupswitch，操作数按4字节对齐
+                int p = (pc + 4) & ~3;
+                if (op == 0xaa) {
+                    int low = readInt(code, p + 4);
+                    int high = readInt(code, p + 8);
+                    return p + 12 + (high - low + 1) * 4 - pc;
+                }
+                return p + 8 + readInt(code, p + 4) * 8 - pc;
+            }
+            if (op == 0xc4) {
+                //wide iinc 多两个字节
+                return (code[pc + 1] & 0xff) == 0x84 ? 6 : 4;
+            }
+            if (op == 0x10 || op == 0x12 || (op >= 0x15 && op <= 0x19) || (op >= 0x36 && op <= 0x3a) || op == 0xa9 || op == 0xbc) {
+                return 2;
+            }
+            if (op == 0x11 || op == 0x13 || op == 0x14 || op == 0x84 || (op >= 0x99 && op <= 0xa8)
+                    || (op >= 0xb2 && op <= 0xb8) || op == 0xbb || op == 0xbd || op == 0xc0 || op == 0xc1 || op == 0xc6 || op == 0xc7) {
+                return 3;
+            }
+            if (op == 0xc5) {
+                return 4;
+            }
+            if (op == 0xb9 || op == 0xba || op == 0xc8 || op == 0xc9) {
+                return 5;
+            }
+            return 1;
+        }
+
+        private static int readInt(byte[] code, int p) {
+            return ((code[p] & 0xff) << 24) | ((code[p + 1] & 0xff) << 16) | ((code[p + 2] & 0xff) << 8) | (code[p + 3] & 0xff);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ClassShape other && shape.equals(other.shape);
+    }
+
+    @Override
+    public int hashCode() {
+        return shape.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return shape;
+    }
+}
@@ -0,0 +1,126 @@
+package hsb.compile.springboot;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 一次编译生成的文件，按分类记录所在的输出目录。主代码的class单独记录，用来判断能否不重启直接替换。
+ * class的结构在第一次判断能否替换时才读取，编译器回调里只记录路径
+ */
+public final class CompileChanges {
+
+    private static final Logger LOG = Logger.getInstance(CompileChanges.class);
+
+    /**
+     * @param previous 上次编译这个class时的结构，没有记录时为null，按结构变化处理
+     */
+    public record GeneratedClass(String name, String path, ClassShape previous) {
+    }
+
+    //每个class文件最近一次编译的结构，key是class文件路径，多次编译共用
+    private final Map<String, ClassShape> shapes;
+
+    private final Map<OutputKind, Set<String>> outputRoots = new EnumMap<>(OutputKind.class);
+    private final List<GeneratedClass> classes = new ArrayList<>();
+    //主代码中除了class之外的文件（配置文件等）有变化
+    private boolean mainResourceChanged = false;
+    //第一次判断后的结果
+    private Boolean methodBodyOnly;
+
+    public CompileChanges() {
+        this(new HashMap<>());
+    }
+
+    public CompileChanges(Map<String, ClassShape> shapes) {
+        this.shapes = shapes;
+    }
+
+    public synchronized void add(OutputKind kind, String outputRoot) {
+        outputRoots.computeIfAbsent(kind, k -> new HashSet<>()).add(normalize(outputRoot));
+        if (kind == OutputKind.MAIN) {
+            mainResourceChanged = true;
+        }
+    }
+
+    /**
+     * 记录生成的class，不读取文件。上次的结构从记录里取出，这次没有判断能否替换时，下次编译按结构变化处理
+     */
+    public synchronized void addClass(String outputRoot, String name, String path) {
+        outputRoots.computeIfAbsent(OutputKind.MAIN, k -> new HashSet<>()).add(normalize(outputRoot));
+        classes.add(new GeneratedClass(name, path, shapes.remove(path)));
+    }
+
+    public synchronized List<GeneratedClass> classes() {
+        return List.copyOf(classes);
+    }
+
+    /**
+     * 主代码只有class变化，并且都只修改了方法体。第一次调用时读取所有class的结构，和上次编译比较，并记录下来给下次比较
+     */
+    public synchronized boolean isMethodBodyOnly() {
+        if (methodBodyOnly == null) {
+            methodBodyOnly = compareShapes() && !mainResourceChanged && !classes.isEmpty();
+        }
+        return methodBodyOnly;
+    }
+
+    private boolean compareShapes() {
+        boolean bodyOnly = true;
+        for (GeneratedClass generatedClass : classes) {
+            ClassShape shape;
+            try {
+                shape = ClassShape.read(Files.readAllBytes(Path.of(generatedClass.path())));
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("读取class结构失败:" + generatedClass.path(), e);
+                bodyOnly = false;
+                continue;
+            }
+            shapes.put(generatedClass.path(), shape);
+            //idea启动后第一次编译这个class，不知道项目里加载的是什么结构，按结构变化处理
+            if (!shape.equals(generatedClass.previous())) {
+                bodyOnly = false;
+            }
+        }
+        return bodyOnly;
+    }
+
+    public synchronized boolean isEmpty() {
+        return outputRoots.isEmpty();
+    }
+
+    public synchronized boolean contains(OutputKind kind) {
+        return outputRoots.containsKey(kind);
+    }
+
+    /**
+     * 有这个分类的文件生成的输出目录
+     */
+    public synchronized Set<String> outputRoots(OutputKind kind) {
+        Set<String> roots = outputRoots.get(kind);
+        return roots == null ? Collections.emptySet() : Set.copyOf(roots);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return outputRoots.toString();
+    }
+
+    public static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        return normalized.endsWith("/") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+}
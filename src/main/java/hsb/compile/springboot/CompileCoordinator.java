@@ -0,0 +1,33 @@
+package hsb.compile.springboot;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 代理需要的编译相关操作，把idea相关的部分隔离出来，这样代理可以脱离idea单独运行（基准测试）
+ */
+public interface CompileCoordinator {
+
+    /**
+     * 当前是否需要编译，返回值见 {@link hsb.compile.TaskTimeLine} 中的状态常量
+     */
+    int hasFileModify();
+
+    void changeState(int newState);
+
+    /**
+     * 编译代次，每次开始编译后变大，新代码生效后（见 {@link #codeLive()}）再变大一次，代理的响应缓存按代次失效
+     */
+    long generation();
+
+    /**
+     * 编译出的代码已经在项目里生效：替换了class、项目重启完成或者蓝绿切换到了新实例。
+     * 编译期间从旧代码取到的响应带着编译开始后的代次，这里再加一次代次，这些响应不会被缓存
+     */
+    void codeLive();
+
+    /**
+     * 触发一次增量编译，编译完成后回调
+     */
+    void make(Runnable afterCompile);
+}
@@ -0,0 +1,140 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 编译失败后处理等待队列中的连接：读取第一段数据，是http请求的话直接返回编译错误页面并关闭连接；
+ * 不是http，或者一段时间内客户端没有发送数据（服务端先发数据的协议），交给回调连接还在运行的旧后端。
+ * 加在pipeline最前面，处理完一次后移除自己
+ */
+class CompileErrorResponder extends ChannelInboundHandlerAdapter {
+
+    static final String NAME = "compile-error-responder";
+
+    //等待客户端发送数据的时间
+    private static final long SNIFF_TIMEOUT_MS = 300;
+
+    private final CompileResult result;
+    //不是http时调用，参数是已经读到的数据（可能为null），由回调负责释放
+    private final Consumer<Object> passThrough;
+    private ScheduledFuture<?> timeout;
+    private boolean done = false;
+
+    CompileErrorResponder(CompileResult result, Consumer<Object> passThrough) {
+        this.result = result;
+        this.passThrough = passThrough;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        timeout = ctx.executor().schedule(() -> finish(ctx, null), SNIFF_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        ctx.read();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (done) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (msg instanceof ByteBuf buf && isHttpRequest(buf)) {
+            done = true;
+            timeout.cancel(false);
+            ReferenceCountUtil.release(msg);
+            ctx.pipeline().remove(this);
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(errorResponse(result))).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        finish(ctx, msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (!done) {
+            done = true;
+            timeout.cancel(false);
+        }
+        ctx.fireChannelInactive();
+    }
+
+    private void finish(ChannelHandlerContext ctx, Object msg) {
+        if (done) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        done = true;
+        timeout.cancel(false);
+        ctx.pipeline().remove(this);
+        passThrough.accept(msg);
+    }
+
+    /**
+     * 请求行形如 "GET /path HTTP/1.1"，只检查第一行
+     */
+    static boolean isHttpRequest(ByteBuf buf) {
+        int start = buf.readerIndex();
+        int end = Math.min(buf.writerIndex(), start + 8192);
+        int methodEnd = -1;
+        for (int i = start; i < end; i++) {
+            byte b = buf.getByte(i);
+            if (b == ' ') {
+                methodEnd = i;
+                break;
+            }
+            if (b < 'A' || b > 'Z') {
+                return false;
+            }
+        }
+        if (methodEnd <= start) {
+            return false;
+        }
+        for (int i = methodEnd + 1; i < end; i++) {
+            if (buf.getByte(i) == '\n') {
+                String line = buf.toString(start, i - start, StandardCharsets.US_ASCII).trim();
+                return line.contains(" HTTP/");
+            }
+        }
+        return false;
+    }
+
+    static byte[] errorResponse(CompileResult result) {
+        StringBuilder html = new StringBuilder(1024);
+        html.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>编译失败</title></head><body>")
+                .append("<h2>编译失败，项目没有重启</h2><pre>");
+        if (result.getErrors().isEmpty()) {
+            html.append("没有获取到编译错误信息，请查看idea的Build窗口");
+        }
+        for (String error : result.getErrors()) {
+            html.append(escape(error)).append('\n');
+        }
+        html.append("</pre></body></html>");
+        byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 500 Compilation Failed\r\n"
+                + "Content-Type: text/html; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Cache-Control: no-store\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        return response;
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,42 @@
+package hsb.compile.springboot;
+
+import java.util.List;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 一次编译的结果，编译成功时带上生成的文件分类，编译失败时带上编译错误，代理用来直接响应等待中的请求
+ */
+public final class CompileResult {
+
+    private final boolean success;
+    private final List<String> errors;
+    private final CompileChanges changes;
+
+    private CompileResult(boolean success, List<String> errors, CompileChanges changes) {
+        this.success = success;
+        this.errors = errors;
+        this.changes = changes;
+    }
+
+    public static CompileResult success(CompileChanges changes) {
+        return new CompileResult(true, List.of(), changes);
+    }
+
+    public static CompileResult failed(List<String> errors) {
+        return new CompileResult(false, List.copyOf(errors), new CompileChanges());
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public CompileChanges getChanges() {
+        return changes;
+    }
+}
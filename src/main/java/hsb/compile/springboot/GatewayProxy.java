@@ -0,0 +1,502 @@
+package hsb.compile.springboot;
+
+import com.intellij.openapi.diagnostic.Logger;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 网关模式：一个端口访问所有运行中的项目。按 {@link GatewayRoutes} 把每个请求转发到对应项目web端口的代理，
+ * 编译、重启时的等待、重放都由那个代理负责，所以每个路由的热加载互不影响。
+ * <p>
+ * 同一个客户端连接上的请求可以去不同的项目：按http的消息边界逐个转发，一个请求的响应收完后才处理下一个请求，
+ * 每个路由在这个客户端连接上保持一个到代理的连接。路由需要编译或者正在重启时，关闭这个路由的旧连接重新连接，
+ * 由代理在新连接上等待编译、重启。升级协议（WebSocket）后变成直接转发，直到连接关闭
+ */
+public class GatewayProxy {
+
+    private static final Logger LOG = Logger.getInstance(GatewayProxy.class);
+
+    private static final int MAX_HEAD_BYTES = 64 * 1024;
+
+    private final int localPort;
+    private volatile GatewayRoutes routes = GatewayRoutes.EMPTY;
+    private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private boolean close = false;
+
+    public GatewayProxy(int localPort) {
+        this.localPort = localPort;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * 整体替换路由表，已经在转发的请求不受影响，之后的请求使用新的路由
+     */
+    public void setRoutes(GatewayRoutes routes) {
+        this.routes = routes;
+    }
+
+    public synchronized void run() throws InterruptedException {
+        if (close) {
+            return;
+        }
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new Session());
+                    }
+                });
+        b.bind(localPort).sync();
+        LOG.info("网关开始监听端口" + localPort);
+    }
+
+    public synchronized void close() {
+        close = true;
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    /**
+     * 一个客户端连接，只在连接所在的netty线程上访问
+     */
+    private class Session extends ChannelInboundHandlerAdapter {
+        private ChannelHandlerContext ctx;
+        private ByteBuf cumulation;
+        //这个客户端连接上每个路由对应的代理连接
+        private final Map<GatewayRoutes.Route, ChannelFuture> backends = new HashMap<>();
+        //当前请求使用的代理连接
+        private ChannelFuture backend;
+        //当前请求还没有转发完的请求体
+        private HttpBodyFramer requestBody;
+        private String method;
+        private boolean awaitingResponse = false;
+        private boolean closeAfterResponse = false;
+        private boolean tunnel = false;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+            ctx.read();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            if (tunnel) {
+                send(buf);
+                return;
+            }
+            if (cumulation == null) {
+                cumulation = buf;
+            } else {
+                ByteBuf merged = ctx.alloc().buffer(cumulation.readableBytes() + buf.readableBytes());
+                merged.writeBytes(cumulation).writeBytes(buf);
+                cumulation.release();
+                buf.release();
+                cumulation = merged;
+            }
+            process();
+        }
+
+        private void process() {
+            while (cumulation != null && cumulation.isReadable()) {
+                if (requestBody != null) {
+                    int start = cumulation.readerIndex();
+                    int end = requestBody.consume(cumulation, start, cumulation.writerIndex());
+                    if (end > start) {
+                        send(cumulation.retainedSlice(start, end - start));
+                        cumulation.readerIndex(end);
+                    }
+                    if (!requestBody.isDone()) {
+                        break;
+                    }
+                    requestBody = null;
+                    continue;
+                }
+                if (awaitingResponse || tunnel) {
+                    //上一个请求的响应收完后再处理
+                    return;
+                }
+                int headEnd = findHeadEnd(cumulation);
+                if (headEnd < 0) {
+                    if (cumulation.readableBytes() > MAX_HEAD_BYTES) {
+                        respond(431, "Request Header Fields Too Large", "请求头太大");
+                        return;
+                    }
+                    break;
+                }
+                if (!startRequest(headEnd + 4)) {
+                    return;
+                }
+            }
+            if (cumulation != null && !cumulation.isReadable()) {
+                cumulation.release();
+                cumulation = null;
+            }
+            if (!awaitingResponse || requestBody != null) {
+                ctx.read();
+            }
+        }
+
+        /**
+         * 解析请求头、选择路由，把请求头转发给代理
+         *
+         * @return false表示已经直接返回错误并关闭连接
+         */
+        private boolean startRequest(int headEnd) {
+            int start = cumulation.readerIndex();
+            String head = cumulation.toString(start, headEnd - start, StandardCharsets.ISO_8859_1);
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                respond(400, "Bad Request", "无法解析的请求");
+                return false;
+            }
+            Map<String, String> headers = headers(lines);
+            GatewayRoutes currentRoutes = routes;
+            GatewayRoutes.Route route = currentRoutes.match(headers.get("host"), requestLine[1]);
+            if (route == null) {
+                respond(404, "Not Found", "没有匹配的路由，当前的路由：\n" + String.join("\n", currentRoutes.description()));
+                return false;
+            }
+            method = requestLine[0];
+            String transferEncoding = headers.getOrDefault("transfer-encoding", "").toLowerCase(Locale.ROOT);
+            String contentLength = headers.get("content-length");
+            if (transferEncoding.contains("chunked")) {
+                requestBody = HttpBodyFramer.chunked();
+            } else if (contentLength != null) {
+                try {
+                    requestBody = HttpBodyFramer.length(Long.parseLong(contentLength.trim()));
+                } catch (NumberFormatException e) {
+                    respond(400, "Bad Request", "错误的Content-Length");
+                    return false;
+                }
+            } else {
+                requestBody = HttpBodyFramer.none();
+            }
+            if (requestBody.isDone()) {
+                requestBody = null;
+            }
+            String connection = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+            closeAfterResponse = connection.contains("close")
+                    || "HTTP/1.0".equals(requestLine[2]) && !connection.contains("keep-alive");
+            backend = backendFor(route);
+            awaitingResponse = true;
+            send(cumulation.retainedSlice(start, headEnd - start));
+            cumulation.readerIndex(headEnd);
+            return true;
+        }
+
+        private ChannelFuture backendFor(GatewayRoutes.Route route) {
+            ChannelFuture future = backends.get(route);
+            if (future != null && (future.isDone() && !future.channel().isActive() || route.proxy().isGating())) {
+                //需要编译或者正在重启，旧连接上不会等待，新连接由代理放进等待队列
+                future.channel().close();
+                backends.remove(route);
+                future = null;
+            }
+            if (future == null) {
+                future = new Bootstrap()
+                        .group(ctx.channel().eventLoop())
+                        .channel(NioSocketChannel.class)
+                        .option(ChannelOption.AUTO_READ, false)
+                        .handler(new Backend(route))
+                        .connect("localhost", route.port());
+                ChannelFuture connecting = future;
+                connecting.addListener((ChannelFutureListener) f -> {
+                    if (!f.isSuccess() && backend == connecting && awaitingResponse) {
+                        respond(502, "Bad Gateway", "无法连接" + route.name() + "的代理端口" + route.port());
+                    }
+                });
+                backends.put(route, future);
+            }
+            return future;
+        }
+
+        /**
+         * 按顺序发给当前请求的代理连接，连接还没建立时等连接成功后发送
+         */
+        private void send(ByteBuf data) {
+            ChannelFuture future = backend;
+            if (future == null) {
+                data.release();
+                return;
+            }
+            if (future.isDone()) {
+                if (future.isSuccess()) {
+                    future.channel().writeAndFlush(data);
+                } else {
+                    data.release();
+                }
+                return;
+            }
+            future.addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    f.channel().writeAndFlush(data);
+                } else {
+                    data.release();
+                }
+            });
+        }
+
+        void responseDone() {
+            awaitingResponse = false;
+            if (closeAfterResponse) {
+                closeOnFlush(ctx.channel());
+                return;
+            }
+            process();
+        }
+
+        void startTunnel() {
+            tunnel = true;
+            if (cumulation != null) {
+                send(cumulation);
+                cumulation = null;
+            }
+            ctx.channel().config().setAutoRead(true);
+        }
+
+        void backendClosed(GatewayRoutes.Route route, Channel channel, boolean responseStarted, boolean untilClose) {
+            ChannelFuture future = backends.get(route);
+            if (future != null && future.channel() == channel) {
+                backends.remove(route);
+            }
+            if (backend == null || backend.channel() != channel || !awaitingResponse && !tunnel) {
+                //空闲的连接，下次用到这个路由时重新连接
+                return;
+            }
+            if (!tunnel && !responseStarted) {
+                respond(502, "Bad Gateway", route.name() + "没有返回响应就断开了");
+            } else if (untilClose) {
+                awaitingResponse = false;
+                closeOnFlush(ctx.channel());
+            } else {
+                ctx.channel().close();
+            }
+        }
+
+        private void respond(int status, String reason, String body) {
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                    + "Content-Type: text/plain; charset=utf-8\r\n"
+                    + "Content-Length: " + content.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            ByteBuf response = Unpooled.wrappedBuffer(head.getBytes(StandardCharsets.ISO_8859_1), content);
+            ctx.channel().writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (cumulation != null) {
+                cumulation.release();
+                cumulation = null;
+            }
+            for (ChannelFuture future : new ArrayList<>(backends.values())) {
+                future.channel().close();
+            }
+            backends.clear();
+            if (backend != null) {
+                backend.channel().close();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOG.debug("网关客户端连接异常", cause);
+            ctx.close();
+        }
+
+        /**
+         * 一个到代理的连接，读取响应直接转发给客户端，同时找到响应的结束位置
+         */
+        private class Backend extends ChannelInboundHandlerAdapter {
+            private final GatewayRoutes.Route route;
+            private final StringBuilder head = new StringBuilder();
+            private HttpBodyFramer body;
+            private boolean responseStarted = false;
+
+            Backend(GatewayRoutes.Route route) {
+                this.route = route;
+            }
+
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                ctx.read();
+            }
+
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                ByteBuf buf = (ByteBuf) msg;
+                if (backend == null || backend.channel() != ctx.channel() || !awaitingResponse && !tunnel) {
+                    //不是当前请求的连接，没有请求时不应该有数据
+                    ReferenceCountUtil.release(msg);
+                    ctx.read();
+                    return;
+                }
+                if (tunnel) {
+                    Session.this.ctx.channel().writeAndFlush(buf);
+                    return;
+                }
+                responseStarted = true;
+                boolean complete = false;
+                for (int i = buf.readerIndex(), end = buf.writerIndex(); i < end && !complete && !tunnel; ) {
+                    if (body == null) {
+                        head.append((char) (buf.getByte(i++) & 0xff));
+                        if (head.length() > MAX_HEAD_BYTES) {
+                            ReferenceCountUtil.release(msg);
+                            ctx.close();
+                            Session.this.ctx.close();
+                            return;
+                        }
+                        if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                            complete = onResponseHead();
+                        }
+                        continue;
+                    }
+                    i = body.consume(buf, i, end);
+                    complete = body.isDone();
+                }
+                boolean responseComplete = complete;
+                Session.this.ctx.channel().writeAndFlush(buf).addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        future.channel().close();
+                        ctx.close();
+                    } else if (tunnel) {
+                        ctx.channel().config().setAutoRead(true);
+                    } else if (responseComplete) {
+                        ctx.read();
+                        responseDone();
+                    } else {
+                        ctx.read();
+                    }
+                });
+                if (tunnel) {
+                    startTunnel();
+                }
+            }
+
+            /**
+             * @return 这个响应没有消息体，已经结束
+             */
+            private boolean onResponseHead() {
+                String[] lines = head.toString().split("\r\n");
+                head.setLength(0);
+                String[] statusLine = lines[0].split(" ", 3);
+                int status;
+                try {
+                    status = Integer.parseInt(statusLine[1]);
+                } catch (RuntimeException e) {
+                    body = HttpBodyFramer.untilClose();
+                    closeAfterResponse = true;
+                    return false;
+                }
+                if (status == 101) {
+                    tunnel = true;
+                    return false;
+                }
+                if (status >= 100 && status < 200) {
+                    //100 Continue等临时响应，后面还有真正的响应
+                    return false;
+                }
+                Map<String, String> headers = headers(lines);
+                String transferEncoding = headers.getOrDefault("transfer-encoding", "").toLowerCase(Locale.ROOT);
+                String contentLength = headers.get("content-length");
+                if ("HEAD".equals(method) || status == 204 || status == 304) {
+                    body = HttpBodyFramer.none();
+                } else if (transferEncoding.contains("chunked")) {
+                    body = HttpBodyFramer.chunked();
+                } else if (contentLength != null) {
+                    try {
+                        body = HttpBodyFramer.length(Long.parseLong(contentLength.trim()));
+                    } catch (NumberFormatException e) {
+                        body = HttpBodyFramer.untilClose();
+                    }
+                } else {
+                    body = HttpBodyFramer.untilClose();
+                }
+                if (body.mode == HttpBodyFramer.Mode.UNTIL_CLOSE
+                        || headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT).contains("close")) {
+                    closeAfterResponse = true;
+                }
+                return body.isDone();
+            }
+
+            private void responseDone() {
+                body = null;
+                responseStarted = false;
+                Session.this.responseDone();
+            }
+
+            @Override
+            public void channelInactive(ChannelHandlerContext ctx) {
+                boolean untilClose = body != null && body.mode == HttpBodyFramer.Mode.UNTIL_CLOSE;
+                backendClosed(route, ctx.channel(), responseStarted, untilClose);
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                LOG.debug("网关到" + route.name() + "的连接异常", cause);
+                ctx.close();
+            }
+        }
+    }
+
+    private static Map<String, String> headers(String[] lines) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.merge(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+            }
+        }
+        return headers;
+    }
+
+    private static int findHeadEnd(ByteBuf buf) {
+        for (int i = buf.readerIndex(), end = buf.writerIndex() - 3; i < end; i++) {
+            if (buf.getByte(i) == '\r' && buf.getByte(i + 1) == '\n' && buf.getByte(i + 2) == '\r' && buf.getByte(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void closeOnFlush(Channel ch) {
+        if (ch.isActive()) {
+            ch.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
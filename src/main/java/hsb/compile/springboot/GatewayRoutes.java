@@ -0,0 +1,131 @@
+package hsb.compile.springboot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 网关的路由表，创建后不再修改，项目启动、停止时整体重新生成后替换，转发时不需要加锁。
+ * 先按Host匹配（不含端口），再按路径前缀匹配（按 / 分段的前缀树，取最长的前缀），都没有匹配时使用默认路由
+ */
+public final class GatewayRoutes {
+
+    /**
+     * @param name  运行配置名称
+     * @param port  项目web端口的代理端口，网关转发到这个端口，由代理负责编译、重启时的等待
+     * @param proxy 这个端口的代理
+     */
+    public record Route(String name, int port, SpringBootPortForwardingProxy proxy) {
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Route route;
+    }
+
+    public static final GatewayRoutes EMPTY = new Builder().build();
+
+    private final Map<String, Route> hosts;
+    private final Node root;
+    private final Route fallback;
+    //路由说明，没有匹配时返回给客户端
+    private final List<String> description;
+
+    private GatewayRoutes(Map<String, Route> hosts, Node root, Route fallback, List<String> description) {
+        this.hosts = hosts;
+        this.root = root;
+        this.fallback = fallback;
+        this.description = description;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param host Host请求头，可以带端口，可以为null
+     * @param path 请求路径，可以带查询参数
+     */
+    public Route match(String host, String path) {
+        if (host != null) {
+            int colon = host.lastIndexOf(':');
+            String name = (colon > 0 && host.indexOf(']') < colon ? host.substring(0, colon) : host).toLowerCase(Locale.ROOT);
+            Route route = hosts.get(name);
+            if (route != null) {
+                return route;
+            }
+        }
+        Route matched = root.route;
+        Node node = root;
+        int query = path.indexOf('?');
+        String pathOnly = query < 0 ? path : path.substring(0, query);
+        for (String segment : pathOnly.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+            if (node.route != null) {
+                matched = node.route;
+            }
+        }
+        return matched != null ? matched : fallback;
+    }
+
+    public List<String> description() {
+        return description;
+    }
+
+    /**
+     * 运行配置名称对应的Host名称，例如 order-service.localhost，浏览器会把 *.localhost 解析到本机
+     */
+    public static String hostName(String configName) {
+        String name = configName.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9-]+", "-").replaceAll("^-+|-+$", "");
+        return (name.isEmpty() ? "app" : name) + ".localhost";
+    }
+
+    public static final class Builder {
+        private final Map<String, Route> hosts = new HashMap<>();
+        private final Node root = new Node();
+        private Route fallback;
+        private final List<String> description = new ArrayList<>();
+
+        public Builder host(String host, Route route) {
+            hosts.put(host.toLowerCase(Locale.ROOT), route);
+            description.add("Host " + host + " -> " + route.name());
+            return this;
+        }
+
+        /**
+         * 路径前缀，按 / 分段匹配，/api/order 匹配 /api/order 和 /api/order/1，不匹配 /api/orders
+         */
+        public Builder prefix(String prefix, Route route) {
+            Node node = root;
+            for (String segment : prefix.split("/")) {
+                if (!segment.isEmpty()) {
+                    node = node.children.computeIfAbsent(segment, k -> new Node());
+                }
+            }
+            node.route = route;
+            description.add("路径 " + prefix + " -> " + route.name());
+            return this;
+        }
+
+        public Builder fallback(Route route) {
+            fallback = route;
+            description.add("其他请求 -> " + route.name());
+            return this;
+        }
+
+        public GatewayRoutes build() {
+            return new GatewayRoutes(Map.copyOf(hosts), root, fallback, List.copyOf(description));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 找到http消息体的结束位置，不修改数据。网关在同一个客户端连接上转发多个请求时，靠它判断请求发完了、响应收完了。
+ * 支持 Content-Length、chunked、没有消息体，以及只能等连接关闭的响应
+ */
+final class HttpBodyFramer {
+
+    enum Mode {
+        NONE, LENGTH, CHUNKED, UNTIL_CLOSE
+    }
+
+    private enum ChunkState {
+        SIZE, DATA, DATA_CRLF, TRAILER
+    }
+
+    final Mode mode;
+    private long remaining;
+    private ChunkState chunkState = ChunkState.SIZE;
+    private long chunkSize;
+    private boolean sizeDigits = true;
+    //trailer当前行的长度，空行表示消息结束
+    private int lineLength;
+    private boolean done;
+
+    private HttpBodyFramer(Mode mode, long length) {
+        this.mode = mode;
+        this.remaining = length;
+        this.done = mode == Mode.NONE || mode == Mode.LENGTH && length == 0;
+    }
+
+    static HttpBodyFramer none() {
+        return new HttpBodyFramer(Mode.NONE, 0);
+    }
+
+    static HttpBodyFramer length(long length) {
+        return new HttpBodyFramer(Mode.LENGTH, length);
+    }
+
+    static HttpBodyFramer chunked() {
+        return new HttpBodyFramer(Mode.CHUNKED, 0);
+    }
+
+    static HttpBodyFramer untilClose() {
+        return new HttpBodyFramer(Mode.UNTIL_CLOSE, 0);
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 消费 [from, to) 的数据
+     *
+     * @return 消息体结束后的第一个位置；还没有结束时返回to
+     */
+    int consume(ByteBuf buf, int from, int to) {
+        int i = from;
+        while (i < to && !done) {
+            switch (mode) {
+                case LENGTH -> {
+                    int n = (int) Math.min(remaining, to - i);
+                    i += n;
+                    remaining -= n;
+                    done = remaining == 0;
+                }
+                case CHUNKED -> i = consumeChunked(buf, i, to);
+                default -> i = to;
+            }
+        }
+        return i;
+    }
+
+    private int consumeChunked(ByteBuf buf, int i, int to) {
+        switch (chunkState) {
+            case SIZE -> {
+                byte b = buf.getByte(i++);
+                if (b == '\n') {
+                    if (chunkSize == 0) {
+                        chunkState = ChunkState.TRAILER;
+                        lineLength = 0;
+                    } else {
+                        chunkState = ChunkState.DATA;
+                        remaining = chunkSize;
+                    }
+                    chunkSize = 0;
+                    sizeDigits = true;
+                } else if (sizeDigits) {
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        chunkSize = chunkSize * 16 + digit;
+                    } else {
+                        //chunk扩展或者空白，之后到行尾都不是长度
+                        sizeDigits = false;
+                    }
+                }
+            }
+            case DATA -> {
+                int n = (int) Math.min(remaining, to - i);
+                i += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    chunkState = ChunkState.DATA_CRLF;
+                }
+            }
+            case DATA_CRLF -> {
+                if (buf.getByte(i++) == '\n') {
+                    chunkState = ChunkState.SIZE;
+                }
+            }
+            case TRAILER -> {
+                byte b = buf.getByte(i++);
+                if (b == '\n') {
+                    if (lineLength == 0) {
+                        done = true;
+                    }
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    lineLength++;
+                }
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,830 @@
+package hsb.compile.springboot;
+
+import hsb.compile.TaskTimeLine;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.AttributeKey;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 代理的http快速通道，每个连接一个实例，放在pipeline最前面。新连接先拦住channelActive，读取请求头：
+ * <ul>
+ *     <li>静态资源直接从编译输出目录返回，不经过springboot项目，项目编译、重启期间也不用排队。
+ *     按项目上报的context-path、static-path-pattern和classpath里的静态资源位置查找，用FileRegion零拷贝发送，支持ETag和Last-Modified。
+ *     项目有自己的过滤器（比如spring security）时项目不上报配置，不直接返回；带Range的请求交给项目处理</li>
+ *     <li>开启了响应缓存时，GET请求命中缓存直接返回；没有命中时通过这个客户端自己的后端连接获取完整响应，可以缓存的保存下来。
+ *     后端连接保持长连接，同一个编译代次内的下一次获取继续使用</li>
+ * </ul>
+ * 处理完继续读下一个请求。其他请求把已经读到的数据放到 {@link #PENDING_REQUEST}，移除自己，再触发channelActive按原来的流程转发
+ */
+class HttpFastPathHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * 转发给后端之前已经读到的请求数据，连接后端成功后先发送
+     */
+    static final AttributeKey<ByteBuf> PENDING_REQUEST = AttributeKey.valueOf("hsb.compile.pendingRequest");
+
+    private static final int MAX_HEAD_BYTES = 8192;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("mjs", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("map", "application/json");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+    }
+
+    /**
+     * 项目的编译输出目录，以及项目上报的静态资源配置
+     */
+    record StaticResources(List<Path> roots, StaticResourceConfig config) {
+    }
+
+    //为null时不直接返回静态资源
+    private final StaticResources staticResources;
+    private final CompileCoordinator compileCoordinator;
+    //为null时不缓存
+    private final ResponseCache cache;
+    private final BooleanSupplier draining;
+    //单独连接后端，返回的channel不自动读取，和客户端在同一个线程
+    private final Function<Channel, ChannelFuture> backendConnector;
+    private ByteBuf cumulation;
+    //获取响应用的后端连接，正在获取或者空闲等待下一次获取
+    private Channel fetchChannel;
+    //fetchChannel建立时的编译代次，重新编译、切换后端之后不再使用
+    private long fetchGeneration;
+
+    HttpFastPathHandler(StaticResources staticResources, CompileCoordinator compileCoordinator, ResponseCache cache,
+                        BooleanSupplier draining, Function<Channel, ChannelFuture> backendConnector) {
+        this.staticResources = staticResources;
+        this.compileCoordinator = compileCoordinator;
+        this.cache = cache;
+        this.draining = draining;
+        this.backendConnector = backendConnector;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        //先不通知后面的handler，读到第一个请求再决定
+        ctx.read();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf buf = (ByteBuf) msg;
+        if (cumulation == null) {
+            cumulation = buf;
+        } else {
+            ByteBuf merged = ctx.alloc().buffer(cumulation.readableBytes() + buf.readableBytes());
+            merged.writeBytes(cumulation).writeBytes(buf);
+            cumulation.release();
+            buf.release();
+            cumulation = merged;
+        }
+        process(ctx);
+    }
+
+    private void process(ChannelHandlerContext ctx) {
+        while (true) {
+            int headEnd = findHeadEnd(cumulation);
+            if (headEnd < 0) {
+                if (cumulation.readableBytes() > MAX_HEAD_BYTES) {
+                    handOff(ctx);
+                } else {
+                    ctx.read();
+                }
+                return;
+            }
+            String head = cumulation.toString(cumulation.readerIndex(), headEnd - cumulation.readerIndex(), StandardCharsets.ISO_8859_1);
+            Request request = Request.parse(head);
+            int state = compileCoordinator.hasFileModify();
+            //源文件改了还没有编译时，输出目录里是旧文件，缓存也是旧的，走原来的流程触发编译
+            if (request == null || state == TaskTimeLine.NEED_COMPILE) {
+                handOff(ctx);
+                return;
+            }
+            //Range请求由项目返回206
+            Path file = staticResources == null || request.range ? null : resolve(request.path);
+            boolean keepAlive;
+            if (file != null) {
+                cumulation.readerIndex(headEnd + 4);
+                try {
+                    keepAlive = serve(ctx, request, file);
+                } catch (IOException e) {
+                    //文件刚好被删除等情况，交给项目处理已经来不及了，直接关闭
+                    ctx.close();
+                    return;
+                }
+            } else if (cache != null && request.cacheable) {
+                long generation = compileCoordinator.generation();
+                ByteBuf cached = cache.get(generation, request.cacheKey);
+                if (cached != null) {
+                    cumulation.readerIndex(headEnd + 4);
+                    keepAlive = request.keepAlive;
+                    ChannelFuture future = ctx.writeAndFlush(cached);
+                    if (!keepAlive) {
+                        future.addListener(ChannelFutureListener.CLOSE);
+                    }
+                } else if (state == TaskTimeLine.NOT_CHANGE && !draining.getAsBoolean()) {
+                    ByteBuf original = cumulation.retainedSlice(cumulation.readerIndex(), headEnd + 4 - cumulation.readerIndex());
+                    cumulation.readerIndex(headEnd + 4);
+                    fetch(ctx, request, generation, original);
+                    return;
+                } else {
+                    //正在编译或者准备重启，按原来的流程进入等待队列
+                    handOff(ctx);
+                    return;
+                }
+            } else {
+                handOff(ctx);
+                return;
+            }
+            if (!keepAlive || !continueReading(ctx)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 当前请求处理完了，已经读到下一个请求的数据时返回true继续处理，否则读取客户端
+     */
+    private boolean continueReading(ChannelHandlerContext ctx) {
+        if (cumulation != null && cumulation.isReadable()) {
+            return true;
+        }
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+        ctx.read();
+        return false;
+    }
+
+    /**
+     * 请求头结束的 \r\n\r\n 的位置，还没有读完时返回-1
+     */
+    private static int findHeadEnd(ByteBuf buf) {
+        for (int i = buf.readerIndex(), end = buf.writerIndex() - 3; i < end; i++) {
+            if (buf.getByte(i) == '\r' && buf.getByte(i + 1) == '\n' && buf.getByte(i + 2) == '\r' && buf.getByte(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 不是快速通道能处理的请求，之后整个连接都按原来的方式转发
+     */
+    private void handOff(ChannelHandlerContext ctx) {
+        if (fetchChannel != null) {
+            //之后不会再获取
+            fetchChannel.close();
+            fetchChannel = null;
+        }
+        ctx.channel().attr(PENDING_REQUEST).set(cumulation);
+        cumulation = null;
+        ctx.fireChannelActive();
+        ctx.pipeline().remove(this);
+    }
+
+    /**
+     * 获取失败，请求放回去按原来的方式转发
+     */
+    private void fetchFailed(ChannelHandlerContext ctx, ByteBuf original) {
+        if (cumulation != null && cumulation.isReadable()) {
+            ByteBuf merged = ctx.alloc().buffer(original.readableBytes() + cumulation.readableBytes());
+            merged.writeBytes(original).writeBytes(cumulation);
+            original.release();
+            cumulation.release();
+            cumulation = merged;
+        } else {
+            if (cumulation != null) {
+                cumulation.release();
+            }
+            cumulation = original;
+        }
+        handOff(ctx);
+    }
+
+    /**
+     * 通过后端连接发送这一个请求，读取完整的响应。同一个编译代次内已经有空闲的后端连接时直接使用，否则新建连接
+     */
+    private void fetch(ChannelHandlerContext ctx, Request request, long generation, ByteBuf original) {
+        Fetch fetch = new Fetch(ctx, request, generation, cache.version(), original);
+        Channel idle = fetchChannel;
+        if (idle != null && idle.isActive() && fetchGeneration == generation) {
+            fetch.send(idle);
+            return;
+        }
+        if (idle != null) {
+            idle.close();
+        }
+        ChannelFuture connect = backendConnector.apply(ctx.channel());
+        Channel channel = connect.channel();
+        fetchChannel = channel;
+        fetchGeneration = generation;
+        channel.closeFuture().addListener(f -> {
+            if (fetchChannel == channel) {
+                fetchChannel = null;
+            }
+        });
+        connect.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                if (fetchChannel == channel) {
+                    fetchChannel = null;
+                }
+                if (ctx.channel().isActive()) {
+                    fetchFailed(ctx, original);
+                } else {
+                    original.release();
+                }
+                return;
+            }
+            fetch.send(channel);
+        });
+    }
+
+    /**
+     * @return 是否保持连接
+     */
+    private boolean serve(ChannelHandlerContext ctx, Request request, Path file) throws IOException {
+        long length = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+        String etag = "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        String lastModifiedText = HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC));
+
+        boolean notModified = etag.equals(request.ifNoneMatch)
+                || (request.ifNoneMatch == null && notModifiedSince(request.ifModifiedSince, lastModified));
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.version).append(notModified ? " 304 Not Modified\r\n" : " 200 OK\r\n");
+        head.append("ETag: ").append(etag).append("\r\n");
+        head.append("Last-Modified: ").append(lastModifiedText).append("\r\n");
+        //开发期间每次都验证，文件变了浏览器能马上拿到
+        head.append("Cache-Control: no-cache\r\n");
+        if (!notModified) {
+            head.append("Content-Type: ").append(contentType(file)).append("\r\n");
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (!request.keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+
+        ctx.write(Unpooled.copiedBuffer(head, StandardCharsets.ISO_8859_1));
+        if (!notModified && !request.head && length > 0) {
+            RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+            ctx.write(new DefaultFileRegion(raf.getChannel(), 0, length));
+        }
+        ChannelFuture future = ctx.writeAndFlush(Unpooled.EMPTY_BUFFER);
+        if (!request.keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+        return request.keepAlive;
+    }
+
+    private static boolean notModifiedSince(String ifModifiedSince, long lastModified) {
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            return ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli() >= lastModified;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (type == null) {
+            type = URLConnection.guessContentTypeFromName(name);
+        }
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    /**
+     * 在输出目录的静态资源位置下查找文件，不允许跳出这些目录
+     */
+    private Path resolve(String path) {
+        if (!path.startsWith("/") || path.endsWith("/")) {
+            return null;
+        }
+        String relative = staticResources.config().relativePath(path);
+        if (relative == null) {
+            return null;
+        }
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(relative.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (decoded.indexOf('\0') >= 0 || decoded.indexOf('\\') >= 0) {
+            return null;
+        }
+        try {
+            for (Path root : staticResources.roots()) {
+                for (String location : staticResources.config().locations()) {
+                    Path base = root.resolve(location).normalize();
+                    Path file = base.resolve(decoded).normalize();
+                    if (file.startsWith(base) && Files.isRegularFile(file)) {
+                        return file;
+                    }
+                }
+            }
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        return null;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+        if (fetchChannel != null) {
+            fetchChannel.close();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+    }
+
+    /**
+     * 读取一个请求的完整响应，按Content-Length或者chunked找到响应的结束位置，结束后从后端连接上移除，后端连接留给下一次获取。
+     * 有明确长度的响应去掉Connection响应头返回给客户端，客户端连接可以继续使用，满足条件的保存到缓存；
+     * 超过单个缓存上限的响应直接转发；没有明确长度的响应读到后端关闭为止，转发后关闭客户端连接
+     */
+    private final class Fetch extends ChannelInboundHandlerAdapter {
+        private final ChannelHandlerContext clientCtx;
+        private final Request request;
+        private final long generation;
+        private final long cacheVersion;
+        private ByteBuf original;
+        private ByteBuf response;
+        private final StringBuilder head = new StringBuilder();
+        private HttpBodyFramer body;
+        //后端要求关闭连接，或者响应只能读到连接关闭为止，这个后端连接不能再使用
+        private boolean closeAfterResponse = false;
+        private boolean streaming = false;
+
+        Fetch(ChannelHandlerContext clientCtx, Request request, long generation, long cacheVersion, ByteBuf original) {
+            this.clientCtx = clientCtx;
+            this.request = request;
+            this.generation = generation;
+            this.cacheVersion = cacheVersion;
+            this.original = original;
+        }
+
+        void send(Channel channel) {
+            channel.pipeline().addLast(this);
+            channel.writeAndFlush(Unpooled.copiedBuffer(request.upstreamHead(), StandardCharsets.ISO_8859_1));
+            channel.read();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            boolean complete = frame(buf);
+            if (streaming) {
+                writeThenRead(ctx, buf, complete);
+                return;
+            }
+            if (response == null) {
+                response = ctx.alloc().buffer(Math.max(buf.readableBytes(), 4096));
+            }
+            response.writeBytes(buf);
+            buf.release();
+            if (complete) {
+                finished(ctx);
+                ByteBuf received = response;
+                response = null;
+                respond(received);
+                return;
+            }
+            if (response.readableBytes() > cache.maxEntryBytes()) {
+                streaming = true;
+                original.release();
+                original = null;
+                ByteBuf received = response;
+                response = null;
+                writeThenRead(ctx, received, false);
+                return;
+            }
+            ctx.read();
+        }
+
+        /**
+         * 解析这段数据，不修改读写位置
+         *
+         * @return 响应已经结束
+         */
+        private boolean frame(ByteBuf buf) {
+            int i = buf.readerIndex();
+            int end = buf.writerIndex();
+            boolean complete = false;
+            while (i < end && !complete) {
+                if (body == null) {
+                    head.append((char) (buf.getByte(i++) & 0xff));
+                    if (head.length() > MAX_HEAD_BYTES) {
+                        body = HttpBodyFramer.untilClose();
+                        closeAfterResponse = true;
+                    } else if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                        complete = onResponseHead();
+                    }
+                    continue;
+                }
+                i = body.consume(buf, i, end);
+                complete = body.isDone();
+            }
+            if (complete && i < end) {
+                //响应之后还有数据，这个连接的状态不确定
+                closeAfterResponse = true;
+            }
+            return complete;
+        }
+
+        /**
+         * @return 这个响应没有响应体，已经结束
+         */
+        private boolean onResponseHead() {
+            String[] lines = head.toString().split("\r\n");
+            head.setLength(0);
+            String[] statusLine = lines[0].split(" ", 3);
+            int status;
+            try {
+                status = Integer.parseInt(statusLine[1]);
+            } catch (RuntimeException e) {
+                status = -1;
+            }
+            if (status < 200) {
+                //解析不了，或者是100 Continue这样的临时响应，按原来的方式读到连接关闭
+                body = HttpBodyFramer.untilClose();
+                closeAfterResponse = true;
+                return false;
+            }
+            String contentLength = null;
+            boolean chunked = false;
+            String connection = "";
+            for (int i = 1; i < lines.length; i++) {
+                String name = Response.headerName(lines[i]);
+                String value = lines[i].substring(lines[i].indexOf(':') + 1).trim();
+                switch (name) {
+                    case "content-length" -> contentLength = value;
+                    case "transfer-encoding" -> chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                    case "connection" -> connection = value.toLowerCase(Locale.ROOT);
+                    default -> {
+                    }
+                }
+            }
+            if (request.head || status == 204 || status == 304) {
+                body = HttpBodyFramer.none();
+            } else if (chunked) {
+                body = HttpBodyFramer.chunked();
+            } else if (contentLength != null) {
+                try {
+                    body = HttpBodyFramer.length(Long.parseLong(contentLength));
+                } catch (NumberFormatException e) {
+                    body = HttpBodyFramer.untilClose();
+                }
+            } else {
+                body = HttpBodyFramer.untilClose();
+            }
+            if (body.mode == HttpBodyFramer.Mode.UNTIL_CLOSE || connection.contains("close")
+                    || (statusLine[0].equals("HTTP/1.0") && !connection.contains("keep-alive"))) {
+                closeAfterResponse = true;
+            }
+            return body.isDone();
+        }
+
+        /**
+         * 响应读完了，从后端连接上移除，后端连接不能再使用时关闭
+         */
+        private void finished(ChannelHandlerContext ctx) {
+            ctx.pipeline().remove(this);
+            if (closeAfterResponse) {
+                ctx.close();
+            }
+            if (original != null) {
+                original.release();
+                original = null;
+            }
+        }
+
+        private void respond(ByteBuf received) {
+            ByteBuf framed = Response.keepAlive(received);
+            if (framed == null) {
+                clientCtx.writeAndFlush(received).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            received.release();
+            if (Response.isCacheable(framed)) {
+                cache.put(generation, cacheVersion, request.cacheKey, framed);
+            }
+            ChannelFuture future = clientCtx.writeAndFlush(framed);
+            if (!request.keepAlive) {
+                future.addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            nextRequest();
+        }
+
+        /**
+         * 继续处理客户端的下一个请求
+         */
+        private void nextRequest() {
+            if (cumulation != null && cumulation.isReadable()) {
+                process(clientCtx);
+            } else {
+                continueReading(clientCtx);
+            }
+        }
+
+        private void writeThenRead(ChannelHandlerContext ctx, ByteBuf buf, boolean complete) {
+            if (complete) {
+                finished(ctx);
+            }
+            //直接转发的响应头没有修改，后端要求关闭时客户端也要关闭
+            boolean keepClient = request.keepAlive && !closeAfterResponse;
+            clientCtx.writeAndFlush(buf).addListener((ChannelFutureListener) future -> {
+                if (!future.isSuccess()) {
+                    ctx.channel().close();
+                } else if (!complete) {
+                    ctx.read();
+                } else if (keepClient) {
+                    nextRequest();
+                } else {
+                    SpringBootPortForwardingProxy.ForwardingHandler.closeOnFlush(clientCtx.channel());
+                }
+            });
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!clientCtx.channel().isActive()) {
+                release();
+                return;
+            }
+            if (streaming) {
+                SpringBootPortForwardingProxy.ForwardingHandler.closeOnFlush(clientCtx.channel());
+                return;
+            }
+            if (response == null) {
+                //后端没有返回任何数据就断开了（比如刚好开始重启，或者空闲的连接被后端关闭），按原来的流程转发，可以等待重放
+                ByteBuf pending = original;
+                original = null;
+                fetchFailed(clientCtx, pending);
+                return;
+            }
+            //读到连接关闭的响应，或者响应没有读完后端就断开了，原样返回后关闭客户端连接
+            original.release();
+            original = null;
+            ByteBuf received = response;
+            response = null;
+            clientCtx.writeAndFlush(received).addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        private void release() {
+            if (original != null) {
+                original.release();
+                original = null;
+            }
+            if (response != null) {
+                response.release();
+                response = null;
+            }
+        }
+    }
+
+    /**
+     * 后端响应的解析
+     */
+    private static final class Response {
+
+        /**
+         * 有明确长度的响应去掉Connection、Keep-Alive响应头，返回新的buffer；没有明确长度时返回null
+         */
+        static ByteBuf keepAlive(ByteBuf response) {
+            int headEnd = findHeadEnd(response);
+            if (headEnd < 0) {
+                return null;
+            }
+            String[] lines = response.toString(response.readerIndex(), headEnd - response.readerIndex(), StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+                return null;
+            }
+            boolean framed = "204".equals(statusLine[1]) || "304".equals(statusLine[1]);
+            StringBuilder head = new StringBuilder(headEnd - response.readerIndex() + 4);
+            head.append(lines[0]).append("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                String name = headerName(lines[i]);
+                if ("connection".equals(name) || "keep-alive".equals(name)) {
+                    continue;
+                }
+                if ("content-length".equals(name)
+                        || ("transfer-encoding".equals(name) && lines[i].toLowerCase(Locale.ROOT).contains("chunked"))) {
+                    framed = true;
+                }
+                head.append(lines[i]).append("\r\n");
+            }
+            if (!framed) {
+                return null;
+            }
+            head.append("\r\n");
+            ByteBuf body = response.slice(headEnd + 4, response.writerIndex() - headEnd - 4);
+            ByteBuf result = Unpooled.buffer(head.length() + body.readableBytes());
+            result.writeCharSequence(head, StandardCharsets.ISO_8859_1);
+            result.writeBytes(body);
+            return result;
+        }
+
+        /**
+         * 只缓存200，并且没有Set-Cookie、没有禁止缓存的响应
+         */
+        static boolean isCacheable(ByteBuf response) {
+            int headEnd = findHeadEnd(response);
+            String[] lines = response.toString(response.readerIndex(), headEnd - response.readerIndex(), StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length < 2 || !"200".equals(statusLine[1])) {
+                return false;
+            }
+            for (int i = 1; i < lines.length; i++) {
+                String name = headerName(lines[i]);
+                String value = lines[i].substring(lines[i].indexOf(':') + 1).trim().toLowerCase(Locale.ROOT);
+                if ("set-cookie".equals(name)
+                        || ("cache-control".equals(name) && (value.contains("no-store") || value.contains("private") || value.contains("no-cache")))
+                        || ("vary".equals(name) && value.equals("*"))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String headerName(String line) {
+            int colon = line.indexOf(':');
+            return colon <= 0 ? "" : line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * 只处理没有请求体的GET和HEAD
+     */
+    private static final class Request {
+        String[] lines;
+        String target;
+        String path;
+        String version;
+        boolean head;
+        boolean keepAlive;
+        String ifNoneMatch;
+        String ifModifiedSince;
+        boolean range;
+        //可以从缓存返回
+        boolean cacheable;
+        String cacheKey;
+
+        static Request parse(String head) {
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                return null;
+            }
+            Request request = new Request();
+            request.lines = lines;
+            if ("HEAD".equals(requestLine[0])) {
+                request.head = true;
+            } else if (!"GET".equals(requestLine[0])) {
+                return null;
+            }
+            request.target = requestLine[1];
+            int end = request.target.indexOf('?');
+            request.path = end < 0 ? request.target : request.target.substring(0, end);
+            request.version = requestLine[2];
+            request.keepAlive = "HTTP/1.1".equals(request.version);
+            request.cacheable = !request.head && request.keepAlive;
+            //响应可能因为这些请求头不同，都放到缓存的key里
+            StringBuilder key = new StringBuilder(lines[0]);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                switch (name) {
+                    case "content-length" -> {
+                        if (!"0".equals(value)) {
+                            return null;
+                        }
+                    }
+                    case "transfer-encoding", "upgrade" -> {
+                        return null;
+                    }
+                    case "connection" -> {
+                        String connection = value.toLowerCase(Locale.ROOT);
+                        if (connection.contains("close")) {
+                            request.keepAlive = false;
+                        } else if (connection.contains("keep-alive")) {
+                            request.keepAlive = true;
+                        }
+                    }
+                    case "if-none-match" -> request.ifNoneMatch = value;
+                    case "if-modified-since" -> request.ifModifiedSince = value;
+                    //浏览器强制刷新时不使用缓存
+                    case "cache-control", "pragma" -> {
+                        String directive = value.toLowerCase(Locale.ROOT);
+                        if (directive.contains("no-cache") || directive.contains("no-store")) {
+                            request.cacheable = false;
+                        }
+                    }
+                    case "range" -> {
+                        request.range = true;
+                        request.cacheable = false;
+                    }
+                    case "host", "accept", "accept-encoding", "accept-language", "authorization", "cookie" ->
+                            key.append('\n').append(name).append(':').append(value);
+                    default -> {
+                    }
+                }
+            }
+            request.cacheKey = key.toString();
+            return request;
+        }
+
+        /**
+         * 发给后端的请求头，去掉客户端的连接相关请求头，改为Connection: keep-alive，后端连接留给下一次获取
+         */
+        String upstreamHead() {
+            StringBuilder head = new StringBuilder(256);
+            head.append(lines[0]).append("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                String name = Response.headerName(lines[i]);
+                if ("connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)) {
+                    continue;
+                }
+                head.append(lines[i]).append("\r\n");
+            }
+            head.append("Connection: keep-alive\r\n\r\n");
+            return head.toString();
+        }
+    }
+}
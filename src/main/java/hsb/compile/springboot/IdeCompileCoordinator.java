@@ -0,0 +1,52 @@
+package hsb.compile.springboot;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.compiler.CompilerManager;
+import com.intellij.openapi.project.Project;
+import hsb.compile.TaskTimeLine;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 基于idea的实现，文件修改状态来自 {@link TaskTimeLine}，编译使用 {@link CompilerManager}
+ */
+public class IdeCompileCoordinator implements CompileCoordinator {
+
+    private final Project project;
+    private final TaskTimeLine taskTimeLine;
+
+    public IdeCompileCoordinator(Project project, TaskTimeLine taskTimeLine) {
+        this.project = project;
+        this.taskTimeLine = taskTimeLine;
+    }
+
+    @Override
+    public int hasFileModify() {
+        return taskTimeLine.hasFileModify();
+    }
+
+    @Override
+    public void changeState(int newState) {
+        taskTimeLine.changeState(newState);
+    }
+
+    @Override
+    public long generation() {
+        return taskTimeLine.generation();
+    }
+
+    @Override
+    public void codeLive() {
+        taskTimeLine.codeLive();
+    }
+
+    @Override
+    public void make(Runnable afterCompile) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            //编译项目，make是增量编译
+            CompilerManager compilerManager = CompilerManager.getInstance(project);
+            compilerManager.make((aborted, errors, warnings, compileContext) -> afterCompile.run());
+        });
+    }
+}
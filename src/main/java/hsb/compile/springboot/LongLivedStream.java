@@ -0,0 +1,381 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AttributeKey;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 长连接（SSE、WebSocket）的跟踪。devtools重启时后端会断开这些连接，浏览器随后一起重连，重启期间的重连都会失败。
+ * 识别出长连接后，代理解析后端返回的数据，重启期间（代理在排空）后端断开时保持客户端连接：
+ * <ul>
+ *     <li>SSE：记录最后一个事件id，后端重启完成后代替客户端重新发送原请求，带上Last-Event-ID，
+ *     新响应的响应头不转发，事件流接着原来的响应继续。重启前后端发送的结束块也不转发</li>
+ *     <li>WebSocket：重启时后端发送的关闭帧不转发，后端重启完成后再给客户端发送1012（Service Restart）关闭帧，
+ *     客户端只需要重连一次，并且重连时后端已经可用。不代替客户端重新握手，新后端上没有原来的会话状态（比如STOMP订阅），
+ *     客户端以为连接还在但是收不到消息，比让客户端重连更糟</li>
+ * </ul>
+ * 只在数据边界（SSE事件之间、WebSocket帧之间）断开时才能恢复，否则客户端已经收到了半个事件/帧，照常关闭。
+ * 只在连接所在的netty线程上访问
+ */
+class LongLivedStream {
+
+    static final AttributeKey<LongLivedStream> KEY = AttributeKey.valueOf("hsb.compile.longLivedStream");
+
+    enum Kind {SSE, WEBSOCKET}
+
+    //WebSocket 1012 Service Restart 关闭帧
+    private static final byte[] SERVICE_RESTART_FRAME = {(byte) 0x88, 0x02, 0x03, (byte) 0xF4};
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_HEAD = 8192;
+
+    final Kind kind;
+    private final String requestHead;
+    private final boolean chunked;
+    private final BooleanSupplier draining;
+
+    //正在读取响应头，第一次的响应头转发，恢复时新响应的响应头不转发
+    private boolean readingHead = true;
+    //恢复时发出了新请求
+    private boolean resuming = false;
+    //后端断开后等待恢复
+    private boolean awaitingResume = false;
+    //SSE响应正常结束了，之后的数据是同一个连接上的其他响应
+    private boolean finished = false;
+    private final StringBuilder head = new StringBuilder();
+    private int headMatched = 0;
+
+    //chunked解析：SIZE读取块大小行，DATA块数据，DATA_END块后面的\r\n，END结束块和trailer
+    private static final int SIZE = 0, DATA = 1, DATA_END = 2, END = 3;
+    private int chunkState = SIZE;
+    private long chunkRemaining;
+    private final StringBuilder sizeLine = new StringBuilder();
+
+    //SSE事件解析
+    private final StringBuilder line = new StringBuilder();
+    private boolean lastWasCr = false;
+    private boolean atEventBoundary = true;
+    private String pendingEventId;
+    private String lastEventId;
+
+    //WebSocket帧解析
+    private final byte[] frameHeader = new byte[14];
+    private int frameHeaderRead = 0;
+    private long framePayloadRemaining = 0;
+    private boolean dropFrame = false;
+
+    private LongLivedStream(Kind kind, String requestHead, boolean chunked, BooleanSupplier draining) {
+        this.kind = kind;
+        this.requestHead = requestHead;
+        this.chunked = chunked;
+        this.draining = draining;
+    }
+
+    /**
+     * 根据请求和响应的第一段数据判断是不是长连接
+     *
+     * @param request  客户端的请求，不改变引用计数
+     * @param response 后端返回的第一段数据，byte[]或者ByteBuf，不改变读位置
+     * @return 不是长连接返回null，返回的对象需要用 {@link #fromBackend} 处理这段数据
+     */
+    static LongLivedStream detect(ByteBuf request, Object response, BooleanSupplier draining) {
+        ByteBuf buf = response instanceof byte[] bytes ? Unpooled.wrappedBuffer(bytes) : (ByteBuf) response;
+        String responseHead = head(buf);
+        String requestHead = head(request);
+        if (responseHead == null || requestHead == null || !requestHead.startsWith("GET ")) {
+            return null;
+        }
+        String[] lines = responseHead.split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2) {
+            return null;
+        }
+        String status = statusLine[1];
+        String contentType = header(lines, "content-type");
+        String transferEncoding = header(lines, "transfer-encoding");
+        boolean chunked = transferEncoding != null && transferEncoding.contains("chunked");
+        Kind kind;
+        if ("101".equals(status) && "websocket".equals(header(lines, "upgrade"))) {
+            kind = Kind.WEBSOCKET;
+        } else if ("200".equals(status) && contentType != null && contentType.startsWith("text/event-stream")
+                && header(lines, "content-length") == null) {
+            kind = Kind.SSE;
+        } else {
+            return null;
+        }
+        return new LongLivedStream(kind, requestHead, chunked, draining);
+    }
+
+    /**
+     * 后端返回的数据，返回需要转发给客户端的部分，可能为空。msg会被释放
+     */
+    ByteBuf fromBackend(Object msg) {
+        ByteBuf in = msg instanceof byte[] bytes ? Unpooled.wrappedBuffer(bytes) : (ByteBuf) msg;
+        ByteBuf out = Unpooled.buffer(in.readableBytes());
+        try {
+            while (in.isReadable()) {
+                byte b = in.readByte();
+                if (finished) {
+                    out.writeByte(b);
+                } else if (readingHead) {
+                    readHead(b, out);
+                } else if (kind == Kind.WEBSOCKET) {
+                    readFrame(b, out);
+                } else if (chunked) {
+                    readChunked(b, out);
+                } else {
+                    out.writeByte(b);
+                    readEvent(b);
+                }
+            }
+        } finally {
+            in.release();
+        }
+        return out;
+    }
+
+    private void readHead(byte b, ByteBuf out) {
+        if (!resuming) {
+            out.writeByte(b);
+        } else if (head.length() < MAX_HEAD) {
+            head.append((char) (b & 0xFF));
+        }
+        headMatched = (b == '\r' && (headMatched == 0 || headMatched == 2)) || (b == '\n' && (headMatched == 1 || headMatched == 3))
+                ? headMatched + 1 : (b == '\r' ? 1 : 0);
+        if (headMatched == 4) {
+            readingHead = false;
+            headMatched = 0;
+            chunkState = SIZE;
+        }
+    }
+
+    /**
+     * 在 {@link #fromBackend} 之后调用，恢复后新响应的响应头和原来的不一致（状态码、是否chunked）时返回true，
+     * 这时不能接着原来的响应转发，需要关闭客户端
+     */
+    boolean resumeFailed() {
+        if (!resuming || readingHead) {
+            return false;
+        }
+        resuming = false;
+        String[] lines = head.toString().split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        String transferEncoding = header(lines, "transfer-encoding");
+        boolean newChunked = transferEncoding != null && transferEncoding.contains("chunked");
+        return statusLine.length < 2 || !"200".equals(statusLine[1]) || newChunked != chunked;
+    }
+
+    private void readChunked(byte b, ByteBuf out) {
+        switch (chunkState) {
+            case SIZE -> {
+                //块大小行先不转发，知道是不是结束块后再决定
+                sizeLine.append((char) (b & 0xFF));
+                if (b == '\n') {
+                    String size = sizeLine.toString().trim();
+                    int extension = size.indexOf(';');
+                    try {
+                        chunkRemaining = Long.parseLong(extension < 0 ? size : size.substring(0, extension), 16);
+                    } catch (NumberFormatException e) {
+                        chunkRemaining = 0;
+                    }
+                    if (chunkRemaining == 0 && draining.getAsBoolean()) {
+                        //项目正在重启，结束块不转发，客户端的响应不结束
+                        chunkState = END;
+                    } else {
+                        out.writeCharSequence(sizeLine, StandardCharsets.ISO_8859_1);
+                        chunkState = chunkRemaining == 0 ? END : DATA;
+                    }
+                    sizeLine.setLength(0);
+                }
+            }
+            case DATA -> {
+                out.writeByte(b);
+                readEvent(b);
+                if (--chunkRemaining == 0) {
+                    chunkState = DATA_END;
+                    chunkRemaining = 2;
+                }
+            }
+            case DATA_END -> {
+                out.writeByte(b);
+                if (--chunkRemaining == 0) {
+                    chunkState = SIZE;
+                }
+            }
+            default -> {
+                //结束块之后的trailer，空行表示响应结束
+                boolean withheld = draining.getAsBoolean();
+                if (!withheld) {
+                    out.writeByte(b);
+                }
+                sizeLine.append((char) (b & 0xFF));
+                if (b == '\n') {
+                    if (sizeLine.toString().trim().isEmpty() && !withheld) {
+                        finished = true;
+                    }
+                    sizeLine.setLength(0);
+                }
+            }
+        }
+    }
+
+    private void readEvent(byte b) {
+        if (b == '\n' && lastWasCr) {
+            lastWasCr = false;
+            return;
+        }
+        lastWasCr = b == '\r';
+        if (b != '\n' && b != '\r') {
+            atEventBoundary = false;
+            if (line.length() < MAX_LINE) {
+                line.append((char) (b & 0xFF));
+            }
+            return;
+        }
+        if (line.length() == 0) {
+            //空行，事件结束
+            if (pendingEventId != null) {
+                lastEventId = pendingEventId;
+                pendingEventId = null;
+            }
+            atEventBoundary = true;
+            return;
+        }
+        String field = line.toString();
+        line.setLength(0);
+        if (field.equals("id") || field.startsWith("id:")) {
+            String value = field.length() <= 3 ? "" : field.substring(3);
+            value = value.startsWith(" ") ? value.substring(1) : value;
+            //按照规范，包含NULL的id忽略。保留原始字节，恢复时原样发回
+            if (value.indexOf('\0') < 0) {
+                pendingEventId = value;
+            }
+        }
+    }
+
+    private void readFrame(byte b, ByteBuf out) {
+        if (framePayloadRemaining > 0) {
+            if (!dropFrame) {
+                out.writeByte(b);
+            }
+            framePayloadRemaining--;
+            return;
+        }
+        if (frameHeaderRead == 0) {
+            //项目正在重启时，后端发出的关闭帧不转发
+            dropFrame = (b & 0x0F) == 0x8 && draining.getAsBoolean();
+        }
+        frameHeader[frameHeaderRead++] = b;
+        if (!dropFrame) {
+            out.writeByte(b);
+        }
+        if (frameHeaderRead < 2) {
+            return;
+        }
+        int lengthCode = frameHeader[1] & 0x7F;
+        int lengthBytes = lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0;
+        int maskBytes = (frameHeader[1] & 0x80) != 0 ? 4 : 0;
+        if (frameHeaderRead < 2 + lengthBytes + maskBytes) {
+            return;
+        }
+        long length = lengthCode;
+        if (lengthBytes > 0) {
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (frameHeader[2 + i] & 0xFF);
+            }
+        }
+        framePayloadRemaining = length;
+        frameHeaderRead = 0;
+    }
+
+    /**
+     * 后端断开时是否在数据边界上，可以在重启后恢复
+     */
+    boolean canResume() {
+        if (readingHead) {
+            return false;
+        }
+        if (kind == Kind.WEBSOCKET) {
+            return frameHeaderRead == 0 && framePayloadRemaining == 0;
+        }
+        boolean chunkBoundary = !chunked || chunkState == SIZE && sizeLine.length() == 0 || chunkState == END && sizeLine.length() == 0;
+        return chunkBoundary && atEventBoundary && line.length() == 0;
+    }
+
+    /**
+     * 响应已经正常结束，不再是长连接
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    void awaitResume() {
+        awaitingResume = true;
+    }
+
+    boolean isAwaitingResume() {
+        return awaitingResume;
+    }
+
+    /**
+     * SSE恢复时发给新后端的请求，用Last-Event-ID替换原来的值。之后新响应的响应头不转发
+     */
+    ByteBuf resumeRequest() {
+        awaitingResume = false;
+        resuming = true;
+        readingHead = true;
+        headMatched = 0;
+        head.setLength(0);
+        chunkState = SIZE;
+        sizeLine.setLength(0);
+        StringBuilder request = new StringBuilder(requestHead.length() + 64);
+        String[] lines = requestHead.split("\r\n");
+        request.append(lines[0]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].regionMatches(true, 0, "Last-Event-ID:", 0, 14)) {
+                continue;
+            }
+            request.append(lines[i]).append("\r\n");
+        }
+        if (lastEventId != null) {
+            request.append("Last-Event-ID: ").append(lastEventId).append("\r\n");
+        }
+        request.append("\r\n");
+        return Unpooled.copiedBuffer(request, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * WebSocket恢复：通知客户端后端已经重启，客户端重新连接
+     */
+    static ByteBuf serviceRestartFrame() {
+        return Unpooled.wrappedBuffer(SERVICE_RESTART_FRAME);
+    }
+
+    private static String head(ByteBuf buf) {
+        int start = buf.readerIndex();
+        int end = Math.min(buf.writerIndex(), start + MAX_HEAD);
+        for (int i = start; i + 3 < end; i++) {
+            if (buf.getByte(i) == '\r' && buf.getByte(i + 1) == '\n' && buf.getByte(i + 2) == '\r' && buf.getByte(i + 3) == '\n') {
+                return buf.toString(start, i - start, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private static String header(String[] lines, String name) {
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return lines[i].substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+}
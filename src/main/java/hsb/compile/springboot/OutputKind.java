@@ -0,0 +1,52 @@
+package hsb.compile.springboot;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 编译生成文件的分类，决定项目是重启、只刷新资源还是什么都不做
+ */
+public enum OutputKind {
+    /**
+     * 主代码的class和配置文件等其他资源，需要重启
+     */
+    MAIN,
+    /**
+     * static、public等目录下的静态资源，devtools不会重启
+     */
+    RESOURCES,
+    /**
+     * templates目录下的模板
+     */
+    TEMPLATES,
+    /**
+     * 测试代码和测试资源，运行中的项目用不到
+     */
+    TESTS;
+
+    private static final String[] STATIC_LOCATIONS = {"static/", "public/", "resources/", "META-INF/resources/"};
+
+    /**
+     * @param relativePath 相对输出目录的路径
+     * @param testOutput   输出目录是不是测试代码的输出目录
+     */
+    public static OutputKind classify(String relativePath, boolean testOutput) {
+        if (testOutput) {
+            return TESTS;
+        }
+        String path = relativePath.replace('\\', '/');
+        if (path.endsWith(".class")) {
+            return MAIN;
+        }
+        if (path.startsWith("templates/")) {
+            return TEMPLATES;
+        }
+        for (String location : STATIC_LOCATIONS) {
+            if (path.startsWith(location)) {
+                return RESOURCES;
+            }
+        }
+        //application.yml等配置文件的修改也需要重启
+        return MAIN;
+    }
+}
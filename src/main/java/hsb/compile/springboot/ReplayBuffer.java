@@ -0,0 +1,151 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.AttributeKey;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 记录客户端当前请求的原始字节，后端在返回任何数据之前断开（devtools重启）的时候，把请求重新发给重启后的后端。
+ * 只记录幂等的http请求，大小有上限，使用池化的堆外内存。只在连接所在的netty线程上访问
+ */
+class ReplayBuffer {
+
+    static final AttributeKey<ReplayBuffer> KEY = AttributeKey.valueOf("hsb.compile.replay");
+
+    //超过这个大小的请求不重放
+    private static final int MAX_REQUEST_BYTES = 64 * 1024;
+
+    private static final byte[][] IDEMPOTENT_METHODS = {
+            bytes("GET "), bytes("HEAD "), bytes("OPTIONS "), bytes("PUT "), bytes("DELETE "), bytes("TRACE ")
+    };
+
+    //会修改数据的请求，响应开始后清空响应缓存
+    private static final byte[][] UNSAFE_METHODS = {
+            bytes("POST "), bytes("PUT "), bytes("PATCH "), bytes("DELETE ")
+    };
+
+    private ByteBuf request;
+    //请求已经发出，还没有收到响应
+    private boolean inRequest = false;
+    private boolean replayable = false;
+    private boolean unsafe = false;
+
+    /**
+     * 客户端发送的数据，在转发给后端之前调用
+     */
+    void append(Object msg) {
+        if (!inRequest) {
+            //上一个请求已经收到响应了，这是一个新请求
+            inRequest = true;
+            release();
+            replayable = isIdempotent(msg);
+            unsafe = startsWithAny(msg, UNSAFE_METHODS);
+            if (replayable) {
+                request = PooledByteBufAllocator.DEFAULT.directBuffer(256, MAX_REQUEST_BYTES);
+            }
+        }
+        if (!replayable) {
+            return;
+        }
+        int length = msg instanceof byte[] bytes ? bytes.length : ((ByteBuf) msg).readableBytes();
+        if (request.readableBytes() + length > MAX_REQUEST_BYTES) {
+            replayable = false;
+            release();
+            return;
+        }
+        if (msg instanceof byte[] bytes) {
+            request.writeBytes(bytes);
+        } else {
+            ByteBuf buf = (ByteBuf) msg;
+            request.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        }
+    }
+
+    /**
+     * 后端开始返回数据了，请求不能再重放
+     *
+     * @return 这是请求的第一段响应时，返回记录的请求，由调用方释放；否则返回null
+     */
+    ByteBuf responseStarted() {
+        if (!inRequest) {
+            return null;
+        }
+        inRequest = false;
+        ByteBuf recorded = replayable ? request : null;
+        replayable = false;
+        request = null;
+        return recorded;
+    }
+
+    /**
+     * 当前请求是POST、PUT、PATCH、DELETE，并且还没有收到响应。在 {@link #responseStarted()} 之前调用
+     */
+    boolean isUnsafe() {
+        return inRequest && unsafe;
+    }
+
+    boolean canReplay() {
+        return inRequest && replayable && request != null && request.isReadable();
+    }
+
+    /**
+     * 重放用的数据，写出后会被释放，自己保留的一份直到收到响应
+     */
+    ByteBuf retainedRequest() {
+        return request.retainedDuplicate();
+    }
+
+    void release() {
+        if (request != null) {
+            request.release();
+            request = null;
+        }
+    }
+
+    private static boolean isIdempotent(Object msg) {
+        return startsWithAny(msg, IDEMPOTENT_METHODS);
+    }
+
+    private static boolean startsWithAny(Object msg, byte[][] methods) {
+        for (byte[] method : methods) {
+            if (startsWith(msg, method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(Object msg, byte[] prefix) {
+        if (msg instanceof byte[] bytes) {
+            if (bytes.length < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (bytes[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        if (buf.readableBytes() < prefix.length) {
+            return false;
+        }
+        int start = buf.readerIndex();
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.getByte(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
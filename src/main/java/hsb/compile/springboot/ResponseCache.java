@@ -0,0 +1,109 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * GET请求的响应缓存，完整的响应（状态行+响应头+响应体）保存在堆外内存里，总大小超过上限时按LRU淘汰。
+ * 每条缓存属于一个编译代次（{@link CompileCoordinator#generation()}），代次变化后所有缓存失效，
+ * 也就是只要重新编译过（之后会重启或者替换class），之前的响应都不会再返回。
+ * 经过代理的POST、PUT、PATCH、DELETE请求会清空缓存，清空之前发出的请求的响应也不再保存
+ */
+class ResponseCache {
+
+    //单个响应最大8MB，并且不超过总大小的1/8
+    private static final int MAX_ENTRY_BYTES = 8 * 1024 * 1024;
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    //accessOrder=true，迭代顺序就是最近最少使用的顺序
+    private final LinkedHashMap<String, ByteBuf> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long generation = Long.MIN_VALUE;
+    private long size = 0;
+    //每次清空加1
+    private long version = 0;
+
+    ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = (int) Math.min(MAX_ENTRY_BYTES, maxBytes / 8);
+    }
+
+    int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @return 缓存的响应，调用方负责释放；没有缓存或者代次不一致返回null
+     */
+    synchronized ByteBuf get(long generation, String key) {
+        if (!sameGeneration(generation)) {
+            return null;
+        }
+        ByteBuf response = entries.get(key);
+        return response == null ? null : response.retainedDuplicate();
+    }
+
+    /**
+     * 发出请求之前获取，保存响应时传给 {@link #put}
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * 复制一份保存，不改变response的引用计数和读写位置。请求发出后已经重新编译过或者清空过的响应直接丢弃
+     */
+    synchronized void put(long generation, long version, String key, ByteBuf response) {
+        int length = response.readableBytes();
+        if (length > maxEntryBytes || version != this.version || !sameGeneration(generation)) {
+            return;
+        }
+        //长期持有，不占用内存池
+        ByteBuf copy = Unpooled.directBuffer(length, length);
+        copy.writeBytes(response, response.readerIndex(), length);
+        ByteBuf old = entries.put(key, copy);
+        if (old != null) {
+            size -= old.readableBytes();
+            old.release();
+        }
+        size += length;
+        Iterator<Map.Entry<String, ByteBuf>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            ByteBuf eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.readableBytes();
+            eldest.release();
+        }
+    }
+
+    /**
+     * 新的代次清空之前的缓存；旧代次的请求返回false
+     */
+    private boolean sameGeneration(long generation) {
+        if (generation == this.generation) {
+            return true;
+        }
+        if (generation < this.generation) {
+            return false;
+        }
+        clear();
+        this.generation = generation;
+        return true;
+    }
+
+    synchronized void clear() {
+        for (ByteBuf response : entries.values()) {
+            response.release();
+        }
+        entries.clear();
+        size = 0;
+        version++;
+    }
+}
@@ -0,0 +1,26 @@
+package hsb.compile.springboot;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 编译完成后对一个运行中的项目的处理方式
+ */
+public enum RestartDecision {
+    /**
+     * 排空请求，通知项目重启，等项目重新监听端口
+     */
+    RESTART,
+    /**
+     * 只修改了方法体，通知项目用 Instrumentation.redefineClasses 直接替换，失败时再重启
+     */
+    REDEFINE,
+    /**
+     * 只通知项目，devtools对静态资源和模板只会触发livereload，不用排空也不用等待
+     */
+    RELOAD_RESOURCES,
+    /**
+     * 生成的文件和项目无关，等待的连接直接转发
+     */
+    NOTHING
+}
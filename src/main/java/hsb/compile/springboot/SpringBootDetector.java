@@ -0,0 +1,99 @@
+package hsb.compile.springboot;
+
+import com.intellij.codeInsight.MetaAnnotationUtil;
+import com.intellij.execution.RunManager;
+import com.intellij.execution.application.ApplicationConfiguration;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.Set;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 判断启动类是不是springboot项目，直接或者通过组合注解间接标注了 @SpringBootApplication / @EnableAutoConfiguration 都算。
+ * 组合注解的查找走注解索引，结果缓存在启动类上，psi修改或者索引状态变化后重新计算。
+ * 项目打开后在后台预先计算所有运行配置，启动时一般直接命中缓存
+ */
+@Service(Service.Level.PROJECT)
+public final class SpringBootDetector {
+
+    private static final Set<String> BOOT_ANNOTATIONS = Set.of(
+            "org.springframework.boot.autoconfigure.SpringBootApplication",
+            "org.springframework.boot.autoconfigure.EnableAutoConfiguration");
+
+    private static final Set<String> BOOT_ANNOTATION_SHORT_NAMES = Set.of("SpringBootApplication", "EnableAutoConfiguration");
+
+    private static final Key<CachedValue<Boolean>> SPRING_BOOT_MAIN = Key.create("hsb.compile.springBootMain");
+
+    private final Project project;
+
+    public SpringBootDetector(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * 需要在读操作里调用
+     */
+    public boolean isSpringBootMain(PsiClass mainClass) {
+        return CachedValuesManager.getCachedValue(mainClass, SPRING_BOOT_MAIN, () -> CachedValueProvider.Result.create(
+                compute(mainClass),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).getModificationTracker()));
+    }
+
+    private boolean compute(PsiClass mainClass) {
+        if (DumbService.isDumb(project)) {
+            //索引不可用时只能看直接标注的注解，索引完成后缓存失效会重新计算
+            return hasDirectAnnotation(mainClass);
+        }
+        return MetaAnnotationUtil.isMetaAnnotated(mainClass, BOOT_ANNOTATIONS);
+    }
+
+    private static boolean hasDirectAnnotation(PsiClass mainClass) {
+        PsiModifierList modifierList = mainClass.getModifierList();
+        if (modifierList == null) {
+            return false;
+        }
+        for (PsiAnnotation annotation : modifierList.getAnnotations()) {
+            PsiJavaCodeReferenceElement reference = annotation.getNameReferenceElement();
+            if (reference != null && BOOT_ANNOTATION_SHORT_NAMES.contains(reference.getReferenceName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 后台计算所有application运行配置的启动类，等索引完成后执行，不阻塞界面
+     */
+    public void prewarm() {
+        ReadAction.nonBlocking(() -> {
+                    for (RunConfiguration configuration : RunManager.getInstance(project).getAllConfigurationsList()) {
+                        if (configuration instanceof ApplicationConfiguration appConfig) {
+                            PsiClass mainClass = appConfig.getMainClass();
+                            if (mainClass != null) {
+                                isSpringBootMain(mainClass);
+                            }
+                        }
+                    }
+                })
+                .inSmartMode(project)
+                .expireWith(project)
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+}
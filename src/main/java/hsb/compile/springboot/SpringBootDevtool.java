@@ -19,20 +19,21 @@ import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
-import com.intellij.psi.PsiAnnotation;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiModifierList;
-import com.intellij.psi.impl.source.tree.java.PsiAnnotationImpl;
 import com.intellij.util.messages.MessageBusConnection;
 import hsb.compile.TaskTimeLine;
 import hsb.compile.demo.MyRunConfigurationExtension;
+import hsb.compile.service.AppCds;
 import hsb.compile.service.PortPeer;
+import hsb.compile.service.ProcessPortDiscovery;
 import hsb.compile.service.RunningSpringBootProject;
 import hsb.compile.service.RunningSpringbootManager;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -131,6 +132,21 @@ public class SpringBootDevtool {
                         Process process = p.getProcess();
                         int processID = OSProcessUtil.getProcessID(process);
                         System.out.println("启动进程pid:" + processID);
+                        long startTime = System.currentTimeMillis();
+                        AppCds.Launch appCds = appConfig.getUserData(MyRunConfigurationExtension.APP_CDS);
+                        handler.addProcessListener(new ProcessListener() {
+                            @Override
+                            public void processTerminated(@NotNull ProcessEvent event) {
+                                AppCds.finish(appCds);
+                            }
+                        });
+
+                        Integer shadowOf = appConfig.getUserData(MyRunConfigurationExtension.SHADOW_OF);
+                        if (shadowOf != null) {
+                            //蓝绿模式启动的新实例，切换前不作为单独的项目
+                            project.getService(RunningSpringbootManager.class).shadowStarted(shadowOf, processID, handler);
+                            return;
+                        }
 
                         ApplicationManager.getApplication().invokeLater(() -> {
                             // 使用 PSI 框架查找 main 类
@@ -142,13 +158,28 @@ public class SpringBootDevtool {
                             LOG.warn("识别到springboot项目启动，开启端口转发");
 
                             RunningSpringBootProject runningSpringBootProject = new RunningSpringBootProject(project, taskTimeLine, processID, appConfig.getName(), appConfig.getMainClassName(), List.of());
+                            List<Path> classpathDirectories = appConfig.getUserData(MyRunConfigurationExtension.CLASSPATH_DIRECTORIES);
+                            if (classpathDirectories != null) {
+                                runningSpringBootProject.staticResourceRoots = classpathDirectories;
+                            }
+                            runningSpringBootProject.configuration = appConfig;
+                            runningSpringBootProject.processHandler = handler;
+                            runningSpringBootProject.startTime = startTime;
+                            runningSpringBootProject.appCds = appCds;
+                            Set<String> baseRoots = appConfig.getUserData(MyRunConfigurationExtension.BASE_CLASSLOADER_ROOTS);
+                            if (baseRoots != null) {
+                                runningSpringBootProject.baseClassLoaderRoots = baseRoots;
+                            }
                             RunningSpringbootManager service = project.getService(RunningSpringbootManager.class);
 
                             service.addProject(runningSpringBootProject);
                             AtomicBoolean stop = runningSpringBootProject.stop;
 
 
-                            //getProcessListenerPort(processID, stop);
+                            //linux下直接从/proc读取进程监听的端口，不依赖项目里的agent上报端口
+                            if (ProcessPortDiscovery.isSupported()) {
+                                new ProcessPortDiscovery(project, processID, stop).start();
+                            }
                             try {
                                 handler.addProcessListener(new ProcessListener() {
                                     @Override
@@ -242,19 +273,4 @@ public class SpringBootDevtool {
 //
 //
 //    }
-
-    private boolean hasSpringBootApplicationAnnotation(PsiClass psiClass) {
-        PsiModifierList modifierList = psiClass.getModifierList();
-        if (modifierList != null) {
-            PsiAnnotation[] annotations = modifierList.getAnnotations();
-            for (PsiAnnotation annotation : annotations) {
-                String annotationShortName = PsiAnnotationImpl.getAnnotationShortName(annotation.getText());
-                // String qualifiedName = annotation.getQualifiedName(); //这个第一次比较慢，
-                if ("SpringBootApplication".equals(annotationShortName)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
 }
@@ -5,55 +5,128 @@ package hsb.compile.springboot;
  * @date 2024/2/10 0:55
  */
 
-import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.project.Project;
 import hsb.compile.TaskTimeLine;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.bytes.ByteArrayDecoder;
 import io.netty.handler.codec.bytes.ByteArrayEncoder;
-
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class SpringBootPortForwardingProxy {
     private static final Logger LOG = Logger.getInstance(SpringBootPortForwardingProxy.class);
-    Project project;
-    TaskTimeLine taskTimeLine;
+    CompileCoordinator compileCoordinator;
 
     private final int localPort;
     private final String remoteHost;
-    private final int remotePort;
+    //蓝绿切换时会改成新实例的端口，已经建立的连接不受影响
+    private volatile int remotePort;
     Thread resumeThread = null;
     AtomicBoolean stop;
     EventLoopGroup bossGroup = new NioEventLoopGroup();
     EventLoopGroup workerGroup = new NioEventLoopGroup(1);
     boolean close = false;
-
-
-    public SpringBootPortForwardingProxy(int localPort, String remoteHost, int remotePort, TaskTimeLine taskTimeLine, Project project, AtomicBoolean stop) {
+    //true时数据先转成byte[]再转发，false时直接转发ByteBuf
+    boolean byteArrayCodec = true;
+    //项目的编译输出目录和静态资源配置，不为null时静态资源直接从这些目录返回，不转发给后端
+    volatile HttpFastPathHandler.StaticResources staticResources;
+    //GET请求的响应缓存，为null时不缓存
+    volatile ResponseCache responseCache;
+    //重启后预热，为null时不预热
+    volatile WarmUp warmUp;
+
+    //后端最后一次返回数据后超过这个时间，并且没有等待响应的请求，才认为连接空闲
+    private static final long IDLE_QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    //后端断开后重新连接并重放请求的最长时间
+    private static final long REPLAY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    //客户端连接当前对应的后端连接，后端重连（重放、恢复长连接）后会替换，任意一端关闭时清除。
+    //客户端和它的后端连接在同一个netty线程上，不需要额外同步
+    static final AttributeKey<Channel> PEER = AttributeKey.valueOf("hsb.compile.peer");
+
+    //准备重启，新连接先放入等待队列，不再转发给后端
+    volatile boolean draining = false;
+    //和后端之间的连接，关闭后自动移除
+    final ChannelGroup backendChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    //排空时暂停读取的空闲客户端连接，项目重启后随后端断开而关闭，没有重启时恢复读取
+    final Set<Channel> pausedClients = ConcurrentHashMap.newKeySet();
+    ForwardingHandler forwardingHandler;
+
+
+    public SpringBootPortForwardingProxy(int localPort, String remoteHost, int remotePort, CompileCoordinator compileCoordinator, AtomicBoolean stop) {
         this.localPort = localPort;
         this.remoteHost = remoteHost;
         this.remotePort = remotePort;
-        this.taskTimeLine = taskTimeLine;
-        this.project = project;
+        this.compileCoordinator = compileCoordinator;
         this.stop = stop;
     }
 
+    public void setByteArrayCodec(boolean byteArrayCodec) {
+        this.byteArrayCodec = byteArrayCodec;
+    }
+
+    /**
+     * 直接返回静态资源，之后的新连接生效
+     *
+     * @param config 项目上报的静态资源配置，为null时不直接返回静态资源
+     */
+    public void setStaticResources(List<Path> roots, StaticResourceConfig config) {
+        staticResources = config == null || roots.isEmpty() ? null : new HttpFastPathHandler.StaticResources(List.copyOf(roots), config);
+    }
+
+    /**
+     * 开启GET请求的响应缓存，重新编译后自动失效
+     *
+     * @param maxBytes 缓存的最大字节数，小于等于0时关闭缓存
+     */
+    public void setResponseCache(long maxBytes) {
+        ResponseCache old = responseCache;
+        responseCache = maxBytes > 0 ? new ResponseCache(maxBytes) : null;
+        if (old != null) {
+            old.clear();
+        }
+    }
+
+    /**
+     * 记录最近的GET/HEAD请求，项目重启后预热
+     *
+     * @param settings 为null时关闭预热
+     */
+    public void setWarmUp(WarmUpSettings settings) {
+        warmUp = settings == null ? null : new WarmUp(settings);
+    }
+
     public synchronized void close() {
         close = true;
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            cache.clear();
+        }
         if (resumeThread != null) {
             resumeThread.interrupt();
         }
@@ -68,7 +141,7 @@ public class SpringBootPortForwardingProxy {
         }
         System.out.println("开始运行netty服务");
         ServerBootstrap b = new ServerBootstrap();
-        ForwardingHandler forwardingHandler = new ForwardingHandler(remoteHost, remotePort);
+        forwardingHandler = new ForwardingHandler(remoteHost);
         b.group(bossGroup, workerGroup)
                 .channel(NioServerSocketChannel.class)
                 .childOption(ChannelOption.AUTO_READ, false) //设置为不自动读取，等到和服务器端成功建立连接后在设置为自动读
@@ -76,8 +149,20 @@ public class SpringBootPortForwardingProxy {
                     @Override
                     protected void initChannel(SocketChannel ch) {
                         ChannelPipeline p = ch.pipeline();
-                        p.addLast(new ByteArrayDecoder());
-                        p.addLast(new ByteArrayEncoder());
+                        HttpFastPathHandler.StaticResources resources = staticResources;
+                        ResponseCache cache = responseCache;
+                        if (resources != null || cache != null) {
+                            p.addLast(new HttpFastPathHandler(resources, compileCoordinator, cache, () -> draining, client -> new Bootstrap()
+                                    .group(client.eventLoop())
+                                    .channel(NioSocketChannel.class)
+                                    .option(ChannelOption.AUTO_READ, false)
+                                    .handler(new ChannelInboundHandlerAdapter())
+                                    .connect(remoteHost, remotePort)));
+                        }
+                        if (byteArrayCodec) {
+                            p.addLast(new ByteArrayDecoder());
+                            p.addLast(new ByteArrayEncoder());
+                        }
                         p.addLast(forwardingHandler);
                     }
                 });
@@ -94,12 +179,158 @@ public class SpringBootPortForwardingProxy {
 
     }
 
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * 新连接是否会进入等待队列：有文件修改需要编译、正在编译或者正在重启。
+     * 网关在这时不复用已有的连接，用新连接让这个代理等待
+     */
+    public boolean isGating() {
+        return draining || compileCoordinator.hasFileModify() != TaskTimeLine.NOT_CHANGE;
+    }
+
+    /**
+     * 蓝绿切换：之后的新连接（包括重放、恢复的连接）转发到新的端口，已经建立的连接继续使用原来的后端
+     */
+    public void switchBackend(int port) {
+        LOG.info("代理" + localPort + "的后端端口从" + remotePort + "切换到" + port);
+        remotePort = port;
+        compileCoordinator.codeLive();
+        //缓存的是旧实例的响应，不等下一次请求才按代次清空
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 重启前排空：新连接放入等待队列，已经空闲的连接暂停读取客户端的新请求，
+     * 等所有正在处理的请求都返回后（最多等待timeoutMs）完成，之后才可以通知项目重启
+     */
+    public CompletableFuture<Void> drain(long timeoutMs) {
+        synchronized (this) {
+            if (close || forwardingHandler == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            draining = true;
+        }
+        return awaitIdle(timeoutMs, -1);
+    }
+
+    /**
+     * 蓝绿切换后排空旧实例：连接到port的连接空闲后暂停读取客户端，等正在处理的请求都返回后（最多等待timeoutMs）完成。
+     * 之后旧实例可以停止，客户端连接随着旧后端断开而关闭，重新连接时会连到新实例
+     */
+    public CompletableFuture<Void> drainBackend(int port, long timeoutMs) {
+        synchronized (this) {
+            if (close || forwardingHandler == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return awaitIdle(timeoutMs, port);
+    }
+
+    /**
+     * @param port 只检查连接到这个端口的后端连接，-1表示所有
+     */
+    private CompletableFuture<Void> awaitIdle(long timeoutMs, int port) {
+        CompletableFuture<Void> drained = new CompletableFuture<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        ScheduledFuture<?> check = workerGroup.scheduleAtFixedRate(() -> {
+            boolean idle = true;
+            for (Channel backendChannel : backendChannels) {
+                if (port != -1 && !(backendChannel.remoteAddress() instanceof InetSocketAddress address && address.getPort() == port)) {
+                    continue;
+                }
+                OutboundHandler handler = backendChannel.pipeline().get(OutboundHandler.class);
+                if (handler == null) {
+                    continue;
+                }
+                if (handler.clientChannel.attr(LongLivedStream.KEY).get() != null) {
+                    //SSE、WebSocket一直在收发数据，等不到空闲，重启时由LongLivedStream保持客户端连接
+                    continue;
+                }
+                if (handler.isIdle()) {
+                    Channel clientChannel = handler.clientChannel;
+                    clientChannel.config().setAutoRead(false);
+                    if (pausedClients.add(clientChannel)) {
+                        clientChannel.closeFuture().addListener((ChannelFutureListener) f -> pausedClients.remove(clientChannel));
+                    }
+                } else {
+                    idle = false;
+                }
+            }
+            if (idle || stop.get() || System.nanoTime() > deadline) {
+                if (!idle) {
+                    LOG.warn("等待正在处理的请求超时，不再等待");
+                }
+                drained.complete(null);
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        drained.whenComplete((v, e) -> check.cancel(false));
+        return drained;
+    }
+
+    /**
+     * 恢复排空时暂停的连接。项目重启了的话这些连接已经随旧后端断开，剩下的是项目没有重启、后端还在的连接
+     */
+    private void resumePausedClients() {
+        for (Channel clientChannel : pausedClients) {
+            pausedClients.remove(clientChannel);
+            clientChannel.eventLoop().execute(() -> {
+                //后端已经断开、等待重连的连接由重连恢复读取，这里打开会丢掉客户端的数据
+                Channel peer = clientChannel.attr(PEER).get();
+                if (clientChannel.isActive() && peer != null && peer.isActive()) {
+                    clientChannel.config().setAutoRead(true);
+                }
+            });
+        }
+    }
+
+    /**
+     * 项目确认会重启之后调用，等旧项目停止监听端口、重新监听后恢复等待队列中的连接。
+     * 返回的future在后端重新监听端口、等待的连接已经转发后完成。项目没有重启时用 {@link #resumeWithoutRestart()}
+     */
+    public synchronized CompletableFuture<Void> resumeConnectAfterCompile() {
+        if (close || forwardingHandler == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return forwardingHandler.resumeConnectAfterCompile();
+    }
+
+    /**
+     * 编译后项目不需要重启，等待队列中的连接立即转发，不用等后端重新监听端口
+     */
+    public synchronized void resumeWithoutRestart() {
+        if (close || forwardingHandler == null) {
+            return;
+        }
+        //替换了class或者不需要重启，新代码已经生效
+        compileCoordinator.codeLive();
+        forwardingHandler.resumeWithoutRestart();
+        resumePausedClients();
+    }
+
+    /**
+     * 编译失败，项目不会重启：等待队列中的http请求直接返回编译错误页面，其他连接立即连接还在运行的旧后端
+     */
+    public synchronized void compileFailed(CompileResult result) {
+        if (close || forwardingHandler == null) {
+            return;
+        }
+        forwardingHandler.compileFailed(result);
+        resumePausedClients();
+    }
+
     @ChannelHandler.Sharable
     class ForwardingHandler extends ChannelInboundHandlerAdapter {
         private final String remoteHost;
-        private final int remotePort;
-
-        Map<Channel, Channel> peerConnect = new ConcurrentHashMap<>(8);
 
         List<Channel> waitStartRead = new ArrayList<>();
 
@@ -107,9 +338,8 @@ public class SpringBootPortForwardingProxy {
         final Object connectInitLock = new Object();
 
 
-        public ForwardingHandler(String remoteHost, int remotePort) {
+        public ForwardingHandler(String remoteHost) {
             this.remoteHost = remoteHost;
-            this.remotePort = remotePort;
             System.out.println("我被创建了");
         }
 
@@ -120,30 +350,27 @@ public class SpringBootPortForwardingProxy {
             final Channel clientChannel = ctx.channel();
 
             synchronized (connectInitLock) {
-                System.out.println("client: channelActive");
                 //先判断是否需要重新编译，需要重新编译的话等待，重新连接练上来，获取到端口号
-                int state = taskTimeLine.hasFileModify();
+                int state = compileCoordinator.hasFileModify();
                 if (state == TaskTimeLine.NEED_COMPILE) {
-                    taskTimeLine.changeState(TaskTimeLine.COMPILING);
-
-                    ApplicationManager.getApplication().invokeLater(() -> {
-                        //编译项目，make是增量编译
-                        CompilerManager compilerManager = CompilerManager.getInstance(project);
-                        compilerManager.make((aborted, errors, warnings, compileContext) -> {
-                            LOG.info("重新编译完成");
-                            System.out.println("重新编译完成");
-                            taskTimeLine.changeState(TaskTimeLine.UNCERTAIN);
-                            //编译完成后，再等待一秒，开始建立连接
-
-                            resumeConnectAfterCompile();
-                        });
+                    compileCoordinator.changeState(TaskTimeLine.COMPILING);
+
+                    //编译完成后由编译监听排空连接、通知项目重启，再恢复等待队列中的连接
+                    compileCoordinator.make(() -> {
+                        LOG.info("重新编译完成");
+                        System.out.println("重新编译完成");
+                        compileCoordinator.changeState(TaskTimeLine.UNCERTAIN);
                     });
 
                     LOG.warn("接收到新请求，需要重新编译");
                     waitStartRead.add(clientChannel);
 
+                } else if (draining) {
+                    LOG.info("接收到新请求，项目准备重启，放入等待队列");
+                    waitStartRead.add(clientChannel);
                 } else if (state == TaskTimeLine.NOT_CHANGE) {
-                    LOG.warn("接收到新请求，和远端建立连接");
+                    //每个连接都会走到这里，日志级别不能太高
+                    LOG.debug("接收到新请求，和远端建立连接");
                     Bootstrap  config = createBootstrap(clientChannel);
                     connectServer(config, clientChannel);
                 } else if (state == TaskTimeLine.COMPILING) {
@@ -154,56 +381,126 @@ public class SpringBootPortForwardingProxy {
             }
         }
 
-        public void resumeConnectAfterCompile() {
+        public CompletableFuture<Void> resumeConnectAfterCompile() {
+            CompletableFuture<Void> ready = new CompletableFuture<>();
             resumeThread = new Thread(() -> {
-                synchronized (connectInitLock) {
+                //等待旧项目停止监听端口，然后等到项目重新监听端口。都不持有锁，避免阻塞netty线程里的channelActive，
+                //这期间的新连接因为draining会进入等待队列
+                //项目已经回复会重启，优雅停机、@PreDestroy耗时多久都要等，不能把连接交给正在停止的旧项目
+                while (!stop.get() && isBackendReady()) {
                     try {
-                        Thread.sleep(1700);
+                        Thread.sleep(20);
                     } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
+                        ready.cancel(false);
+                        return;
                     }
-                    //先让第一个连接上，然后一次连接后续的
-                    if (!waitStartRead.isEmpty()) {
-                        final Channel channel = waitStartRead.get(0);
-                        Bootstrap config = createBootstrap(channel);
-                        LOG.info("重编译后，开始恢复连接");
-
-                        ChannelFuture result = null;
-                        while (!stop.get()) {
-                            try {
-                                Thread.sleep(200);
-                                result = config.connect(remoteHost, remotePort).sync();
-                            } catch (Exception e) {
-                                LOG.error("重编译后，连接失败");
-                            } finally {
-                                if (result != null) {
-                                    LOG.warn("重编译后，连接成功");
-                                    break;
-                                }
-                            }
+                }
+                LOG.info("重编译后，开始恢复连接");
+                while (!stop.get() && !isBackendReady()) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        ready.cancel(false);
+                        return;
+                    }
+                }
+                compileCoordinator.codeLive();
+                WarmUp currentWarmUp = warmUp;
+                if (currentWarmUp != null && !stop.get()) {
+                    CompletableFuture<Void> warmed = currentWarmUp.run(workerGroup, remoteHost, remotePort);
+                    if (currentWarmUp.settings.beforeRelease()) {
+                        //等预热完成再放行，超过预热时间warmed也会完成
+                        try {
+                            warmed.get();
+                        } catch (InterruptedException e) {
+                            ready.cancel(false);
+                            return;
+                        } catch (ExecutionException e) {
+                            LOG.warn("预热失败", e);
                         }
-
-                        if (!stop.get()) {
-                            peerConnect.put(channel, result.channel());
-                            channel.config().setAutoRead(true);
-                            for (int i = 1; i < waitStartRead.size(); i++) {
-                                Channel temp = waitStartRead.get(i);
-                                config = createBootstrap(temp);
-                                connectServer(config, temp);
-                            }
-                        }else{
+                    }
+                }
+                synchronized (connectInitLock) {
+                    for (Channel channel : waitStartRead) {
+                        if (stop.get()) {
                             //即使连接失败也开启自动读
-                            for (int i = 1; i < waitStartRead.size(); i++) {
-                                Channel temp = waitStartRead.get(i);
-                                temp.config().setAutoRead(true);
-                            }
+                            channel.config().setAutoRead(true);
+                        } else {
+                            connectServer(createBootstrap(channel), channel);
                         }
-
                     }
                     waitStartRead.clear();
+                    draining = false;
                 }
-            });
+                resumePausedClients();
+                ready.complete(null);
+            }, "proxy-resume-" + remotePort);
+            resumeThread.setDaemon(true);
             resumeThread.start();
+            return ready;
+        }
+
+        public void resumeWithoutRestart() {
+            synchronized (connectInitLock) {
+                for (Channel channel : waitStartRead) {
+                    connectServer(createBootstrap(channel), channel);
+                }
+                waitStartRead.clear();
+                draining = false;
+            }
+        }
+
+        public void compileFailed(CompileResult result) {
+            List<Channel> waiting;
+            synchronized (connectInitLock) {
+                waiting = new ArrayList<>(waitStartRead);
+                waitStartRead.clear();
+                draining = false;
+            }
+            LOG.info("编译失败，处理等待中的" + waiting.size() + "个连接");
+            for (Channel channel : waiting) {
+                channel.eventLoop().execute(() -> {
+                    if (!channel.isActive()) {
+                        return;
+                    }
+                    ReplayBuffer replay = channel.attr(ReplayBuffer.KEY).get();
+                    LongLivedStream stream = channel.attr(LongLivedStream.KEY).get();
+                    if (replay != null && replay.canReplay() || stream != null && stream.isAwaitingResume()) {
+                        //后端断开后等待重放的请求或者等待恢复的长连接，旧后端还在运行，直接连接
+                        connectServer(createBootstrap(channel), channel);
+                        return;
+                    }
+                    ByteBuf pending = channel.attr(HttpFastPathHandler.PENDING_REQUEST).get();
+                    if (pending != null) {
+                        //请求已经被静态资源处理读取了，不用再等客户端发送
+                        if (CompileErrorResponder.isHttpRequest(pending)) {
+                            channel.attr(HttpFastPathHandler.PENDING_REQUEST).set(null);
+                            pending.release();
+                            channel.writeAndFlush(Unpooled.wrappedBuffer(CompileErrorResponder.errorResponse(result)))
+                                    .addListener(ChannelFutureListener.CLOSE);
+                        } else {
+                            connectServer(createBootstrap(channel), channel);
+                        }
+                        return;
+                    }
+                    channel.pipeline().addFirst(CompileErrorResponder.NAME, new CompileErrorResponder(result,
+                            firstMessage -> connectServer(createBootstrap(channel), channel, firstMessage)));
+                });
+            }
+        }
+
+        /**
+         * 尝试连接一次后端，判断项目是否已经重新监听端口
+         */
+        private boolean isBackendReady() {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(remoteHost, remotePort), 1000);
+                LOG.debug("重编译后，连接成功");
+                return true;
+            } catch (IOException e) {
+                LOG.debug("重编译后，连接失败");
+                return false;
+            }
         }
 
         public Bootstrap createBootstrap(Channel clientChannel) {
@@ -214,7 +511,10 @@ public class SpringBootPortForwardingProxy {
                     .handler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
-                            ch.pipeline().addLast(new ByteArrayDecoder(), new ByteArrayEncoder(), new OutboundHandler(clientChannel));
+                            if (byteArrayCodec) {
+                                ch.pipeline().addLast(new ByteArrayDecoder(), new ByteArrayEncoder());
+                            }
+                            ch.pipeline().addLast(new OutboundHandler(clientChannel));
                         }
                     });
 
@@ -222,36 +522,142 @@ public class SpringBootPortForwardingProxy {
         }
 
         public void connectServer(Bootstrap config, Channel clientChannel) {
+            connectServer(config, clientChannel, null);
+        }
+
+        /**
+         * @param firstMessage 连接前已经从客户端读到的数据，连接成功后先发给后端，可以为null。
+         *                     为null时发送静态资源处理读到的数据（{@link HttpFastPathHandler#PENDING_REQUEST}）
+         */
+        public void connectServer(Bootstrap config, Channel clientChannel, Object firstMessage) {
+            Object first = firstMessage != null ? firstMessage : clientChannel.attr(HttpFastPathHandler.PENDING_REQUEST).getAndSet(null);
             ChannelFuture f = config.connect(remoteHost, remotePort);
             f.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) {
                     if (future.isSuccess()) {
-                        Channel remoteServerChannel = f.channel();
-                        peerConnect.put(clientChannel, remoteServerChannel);
-                        clientChannel.config().setAutoRead(true);
-                        // clientChannel.read();
+                        if (first != null) {
+                            recordRequest(clientChannel, first);
+                            f.channel().pipeline().get(OutboundHandler.class).awaitingResponse = true;
+                            f.channel().writeAndFlush(first);
+                        }
+                        onBackendConnected(clientChannel, f.channel());
                     } else {
+                        ReferenceCountUtil.release(first);
                         clientChannel.close();
                     }
                 }
             });
         }
 
+        private void onBackendConnected(Channel clientChannel, Channel remoteServerChannel) {
+            LongLivedStream stream = clientChannel.attr(LongLivedStream.KEY).get();
+            if (stream != null && stream.isAwaitingResume() && stream.kind == LongLivedStream.Kind.WEBSOCKET) {
+                //后端已经可用，通知客户端重新连接
+                LOG.info("后端重启完成，通知WebSocket客户端重连");
+                clientChannel.attr(LongLivedStream.KEY).set(null);
+                remoteServerChannel.close();
+                clientChannel.writeAndFlush(LongLivedStream.serviceRestartFrame()).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            Channel previous = clientChannel.attr(PEER).getAndSet(remoteServerChannel);
+            if (previous != null && previous != remoteServerChannel) {
+                previous.close();
+            }
+            if (!clientChannel.isActive()) {
+                //连接后端期间客户端已经断开了，channelInactive里没有拿到这个后端连接
+                clientChannel.attr(PEER).set(null);
+                remoteServerChannel.close();
+                return;
+            }
+            backendChannels.add(remoteServerChannel);
+            ReplayBuffer replay = clientChannel.attr(ReplayBuffer.KEY).get();
+            if (stream != null && stream.isAwaitingResume()) {
+                //SSE从最后一个事件之后继续
+                LOG.info("后端重启后恢复SSE连接");
+                remoteServerChannel.pipeline().get(OutboundHandler.class).awaitingResponse = true;
+                remoteServerChannel.writeAndFlush(stream.resumeRequest());
+            } else if (replay != null && replay.canReplay()) {
+                //上一个后端没有返回任何数据就断开了，把请求重新发给新的后端
+                LOG.info("后端重启后重放请求");
+                remoteServerChannel.pipeline().get(OutboundHandler.class).awaitingResponse = true;
+                remoteServerChannel.writeAndFlush(replay.retainedRequest());
+            }
+            clientChannel.config().setAutoRead(true);
+            // clientChannel.read();
+        }
+
+        /**
+         * 后端在返回数据之前断开了（或者长连接在重启时断开），客户端保持连接，等后端重新监听端口后重放请求（恢复长连接）。
+         * 正在重启的时候放入等待队列，由重启完成后的恢复流程连接，否则自己重试连接
+         */
+        void replayLater(Channel clientChannel) {
+            clientChannel.config().setAutoRead(false);
+            synchronized (connectInitLock) {
+                if (draining) {
+                    waitStartRead.add(clientChannel);
+                    return;
+                }
+            }
+            reconnect(clientChannel, System.nanoTime() + REPLAY_TIMEOUT_NANOS);
+        }
+
+        private void reconnect(Channel clientChannel, long deadline) {
+            ChannelFuture f = createBootstrap(clientChannel).connect(remoteHost, remotePort);
+            f.addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    onBackendConnected(clientChannel, future.channel());
+                } else if (clientChannel.isActive() && !stop.get() && System.nanoTime() < deadline) {
+                    clientChannel.eventLoop().schedule(() -> reconnect(clientChannel, deadline), 200, TimeUnit.MILLISECONDS);
+                } else {
+                    clientChannel.close();
+                }
+            });
+        }
+
 
         @Override
         public void channelRead(final ChannelHandlerContext ctx, Object msg) {
-            Channel remoteServerChannel = peerConnect.get(ctx.channel());
+            Channel remoteServerChannel = ctx.channel().attr(PEER).get();
 
-            if (remoteServerChannel.isActive()) {
+            if (remoteServerChannel != null && remoteServerChannel.isActive()) {
+                recordRequest(ctx.channel(), msg);
+                OutboundHandler handler = remoteServerChannel.pipeline().get(OutboundHandler.class);
+                if (handler != null) {
+                    handler.awaitingResponse = true;
+                }
                 remoteServerChannel.writeAndFlush(msg);
+            } else {
+                //直接转发ByteBuf的时候需要释放
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        /**
+         * 转发之前记录，writeAndFlush之后ByteBuf会被释放
+         */
+        private void recordRequest(Channel clientChannel, Object msg) {
+            ReplayBuffer replay = clientChannel.attr(ReplayBuffer.KEY).get();
+            if (replay == null) {
+                replay = new ReplayBuffer();
+                clientChannel.attr(ReplayBuffer.KEY).set(replay);
             }
+            replay.append(msg);
         }
 
         @Override
         public void channelInactive(ChannelHandlerContext ctx) {
             LOG.info("client: channelInactive");
-            Channel remoteServerChannel = peerConnect.get(ctx.channel());
+            ReplayBuffer replay = ctx.channel().attr(ReplayBuffer.KEY).getAndSet(null);
+            if (replay != null) {
+                replay.release();
+            }
+            ByteBuf pending = ctx.channel().attr(HttpFastPathHandler.PENDING_REQUEST).getAndSet(null);
+            if (pending != null) {
+                pending.release();
+            }
+            ctx.channel().attr(LongLivedStream.KEY).set(null);
+            Channel remoteServerChannel = ctx.channel().attr(PEER).getAndSet(null);
             if (remoteServerChannel != null) {
                 closeOnFlush(remoteServerChannel);
             }
@@ -271,15 +677,68 @@ public class SpringBootPortForwardingProxy {
         }
     }
 
-    static class OutboundHandler extends ChannelInboundHandlerAdapter {
-        private final Channel clientChannel;
+    class OutboundHandler extends ChannelInboundHandlerAdapter {
+        final Channel clientChannel;
+
+        //客户端发送了数据，后端还没有返回
+        volatile boolean awaitingResponse = false;
+        volatile long lastResponseTime = System.nanoTime();
 
         public OutboundHandler(Channel clientChannel) {
             this.clientChannel = clientChannel;
         }
 
+        /**
+         * 没有等待响应的请求，并且响应已经有一段时间没有数据了
+         */
+        boolean isIdle() {
+            return !awaitingResponse && System.nanoTime() - lastResponseTime > IDLE_QUIET_NANOS;
+        }
+
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            awaitingResponse = false;
+            lastResponseTime = System.nanoTime();
+            ReplayBuffer replay = clientChannel.attr(ReplayBuffer.KEY).get();
+            LongLivedStream stream = clientChannel.attr(LongLivedStream.KEY).get();
+            if (replay != null) {
+                if (replay.isUnsafe()) {
+                    //修改数据的请求已经处理了，缓存的响应可能过期
+                    ResponseCache cache = responseCache;
+                    if (cache != null) {
+                        cache.clear();
+                    }
+                }
+                ByteBuf request = replay.responseStarted();
+                if (request != null) {
+                    WarmUp currentWarmUp = warmUp;
+                    if (currentWarmUp != null) {
+                        currentWarmUp.record(request);
+                    }
+                    //请求的第一段响应，判断是不是SSE、WebSocket
+                    if (stream == null) {
+                        stream = LongLivedStream.detect(request, msg, () -> draining);
+                        if (stream != null) {
+                            LOG.info("识别到" + stream.kind + "长连接");
+                            clientChannel.attr(LongLivedStream.KEY).set(stream);
+                        }
+                    }
+                    request.release();
+                }
+            }
+            if (stream != null) {
+                msg = stream.fromBackend(msg);
+                if (stream.resumeFailed()) {
+                    LOG.info("重启后的响应和原来的不一致，关闭SSE连接");
+                    ReferenceCountUtil.release(msg);
+                    ctx.close();
+                    ForwardingHandler.closeOnFlush(clientChannel);
+                    return;
+                }
+                if (stream.isFinished()) {
+                    clientChannel.attr(LongLivedStream.KEY).set(null);
+                }
+            }
             clientChannel.writeAndFlush(msg).addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) {
@@ -300,6 +759,21 @@ public class SpringBootPortForwardingProxy {
         @Override
         public void channelInactive(ChannelHandlerContext ctx) {
             LOG.info("server: channelInactive");
+            //客户端还指向这个后端时解除，重连后客户端已经指向新的后端，不能清除
+            clientChannel.attr(PEER).compareAndSet(ctx.channel(), null);
+            ReplayBuffer replay = clientChannel.attr(ReplayBuffer.KEY).get();
+            if (awaitingResponse && replay != null && replay.canReplay() && clientChannel.isActive() && !stop.get()) {
+                forwardingHandler.replayLater(clientChannel);
+                return;
+            }
+            LongLivedStream stream = clientChannel.attr(LongLivedStream.KEY).get();
+            if (stream != null && draining && stream.canResume() && clientChannel.isActive() && !stop.get()) {
+                //项目正在重启，保持客户端的长连接，重启完成后恢复
+                LOG.info("项目重启，保持" + stream.kind + "长连接");
+                stream.awaitResume();
+                forwardingHandler.replayLater(clientChannel);
+                return;
+            }
             ForwardingHandler.closeOnFlush(clientChannel);
         }
 
@@ -0,0 +1,73 @@
+package hsb.compile.springboot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 项目上报的静态资源配置，代理按它从输出目录直接返回静态资源。
+ * 只支持 前缀/** 形式的 spring.mvc.static-path-pattern 和 classpath: 开头的静态资源位置，其他情况不直接返回
+ *
+ * @param contextPath server.servlet.context-path，没有时为空字符串，不以/结尾
+ * @param pathPrefix  static-path-pattern去掉/**，默认的/**对应空字符串
+ * @param locations   classpath里的位置，例如 static/，空字符串表示classpath根目录
+ */
+public record StaticResourceConfig(String contextPath, String pathPrefix, List<String> locations) {
+
+    /**
+     * @return 不能直接返回静态资源时返回null
+     */
+    public static StaticResourceConfig of(String contextPath, String pathPattern, List<String> locations) {
+        if (!pathPattern.endsWith("/**")) {
+            return null;
+        }
+        String prefix = trimSlash(pathPattern.substring(0, pathPattern.length() - "/**".length()));
+        if (prefix.contains("*") || prefix.contains("{")) {
+            return null;
+        }
+        List<String> classpathLocations = new ArrayList<>();
+        for (String location : locations) {
+            String trimmed = location.trim();
+            if (!trimmed.startsWith("classpath:")) {
+                //file:等位置不在输出目录里，classpath*:也不支持
+                continue;
+            }
+            String path = trimmed.substring("classpath:".length());
+            while (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            if (!path.isEmpty() && !path.endsWith("/")) {
+                path = path + "/";
+            }
+            classpathLocations.add(path);
+        }
+        if (classpathLocations.isEmpty()) {
+            return null;
+        }
+        return new StaticResourceConfig(trimSlash(contextPath), prefix, List.copyOf(classpathLocations));
+    }
+
+    /**
+     * 请求路径（没有解码）去掉context-path和静态资源前缀后的相对路径，不属于静态资源映射时返回null
+     */
+    String relativePath(String path) {
+        String base = contextPath + pathPrefix + "/";
+        return path.startsWith(base) ? path.substring(base.length()) : null;
+    }
+
+    /**
+     * 统一成 /xxx 或者空字符串
+     */
+    private static String trimSlash(String path) {
+        String trimmed = path.trim();
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        if (!trimmed.isEmpty() && !trimmed.startsWith("/")) {
+            trimmed = "/" + trimmed;
+        }
+        return trimmed;
+    }
+}
@@ -0,0 +1,220 @@
+package hsb.compile.springboot;
+
+import com.intellij.openapi.diagnostic.Logger;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 重启后预热。记录代理转发过的最近的GET/HEAD请求（按方法+路径去重，数量有上限），项目重启完成后并行重新发送一遍，
+ * 丢弃响应，让懒加载的bean、模板编译、JIT等开销不落在用户的第一个请求上。
+ * 每个代理（也就是每个端口）一份
+ */
+class WarmUp {
+
+    private static final Logger LOG = Logger.getInstance(WarmUp.class);
+
+    private static final int MAX_HEAD_BYTES = 8192;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    final WarmUpSettings settings;
+    private final List<Pattern> include;
+    private final List<Pattern> exclude;
+    //key是方法+路径，accessOrder=true，超过数量时淘汰最久没有出现的请求
+    private final LinkedHashMap<String, String> requests;
+
+    WarmUp(WarmUpSettings settings) {
+        this.settings = settings;
+        this.include = settings.include().stream().map(WarmUp::compile).toList();
+        this.exclude = settings.exclude().stream().map(WarmUp::compile).toList();
+        this.requests = new LinkedHashMap<>(32, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > settings.maxRequests();
+            }
+        };
+    }
+
+    /**
+     * 记录一个已经收到响应的请求，不改变引用计数
+     */
+    void record(ByteBuf request) {
+        int end = headEnd(request);
+        if (end < 0) {
+            return;
+        }
+        String[] lines = request.toString(request.readerIndex(), end - request.readerIndex(), StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !("GET".equals(requestLine[0]) || "HEAD".equals(requestLine[0]))) {
+            return;
+        }
+        String target = requestLine[1];
+        int query = target.indexOf('?');
+        String path = query < 0 ? target : target.substring(0, query);
+        if (!include.isEmpty() && include.stream().noneMatch(p -> p.matcher(path).matches())
+                || exclude.stream().anyMatch(p -> p.matcher(path).matches())) {
+            return;
+        }
+        StringBuilder head = new StringBuilder(end - request.readerIndex() + 32);
+        head.append(lines[0]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            String name = colon <= 0 ? "" : lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = colon <= 0 ? "" : lines[i].substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+            switch (name) {
+                //有请求体的请求、长连接不预热
+                case "content-length" -> {
+                    if (!"0".equals(value)) {
+                        return;
+                    }
+                }
+                case "transfer-encoding", "upgrade" -> {
+                    return;
+                }
+                case "accept" -> {
+                    if (value.contains("text/event-stream")) {
+                        return;
+                    }
+                }
+                //不会用到缓存，拿到完整的响应
+                case "connection", "keep-alive", "if-none-match", "if-modified-since" -> {
+                    continue;
+                }
+                default -> {
+                }
+            }
+            head.append(lines[i]).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        synchronized (requests) {
+            requests.put(requestLine[0] + " " + target, head.toString());
+        }
+    }
+
+    /**
+     * 并行发送记录的请求，返回的future在所有请求完成或者超过预热时间后完成，不会异常结束
+     */
+    CompletableFuture<Void> run(EventLoopGroup group, String host, int port) {
+        List<String> heads;
+        synchronized (requests) {
+            heads = new ArrayList<>(requests.values());
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (heads.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.timeoutMs());
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        int parallelism = Math.max(1, Math.min(settings.parallelism(), heads.size()));
+        AtomicInteger running = new AtomicInteger(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            sendNext(group, host, port, heads, next, finished, running, deadline, done);
+        }
+        done.completeOnTimeout(null, settings.timeoutMs(), TimeUnit.MILLISECONDS);
+        return done.whenComplete((v, e) -> LOG.info("重启后预热了" + finished.get() + "/" + heads.size() + "个请求，耗时"
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"));
+    }
+
+    private void sendNext(EventLoopGroup group, String host, int port, List<String> heads, AtomicInteger next,
+                          AtomicInteger finished, AtomicInteger running, long deadline, CompletableFuture<Void> done) {
+        int index = next.getAndIncrement();
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (index >= heads.size() || done.isDone() || remaining <= 0) {
+            if (running.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+            return;
+        }
+        Runnable then = () -> sendNext(group, host, port, heads, next, finished, running, deadline, done);
+        new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(CONNECT_TIMEOUT_MS, remaining))
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        //只是为了预热，响应直接丢弃
+                        ReferenceCountUtil.release(msg);
+                    }
+
+                    @Override
+                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                        ctx.close();
+                    }
+                })
+                .connect(host, port)
+                .addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        then.run();
+                        return;
+                    }
+                    Channel channel = future.channel();
+                    channel.writeAndFlush(Unpooled.copiedBuffer(heads.get(index), StandardCharsets.ISO_8859_1));
+                    //后端返回完响应后关闭连接，超过预热时间直接关闭
+                    channel.eventLoop().schedule(() -> {
+                        channel.close();
+                    }, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())), TimeUnit.MILLISECONDS);
+                    channel.closeFuture().addListener(f -> {
+                        finished.incrementAndGet();
+                        then.run();
+                    });
+                });
+    }
+
+    private static int headEnd(ByteBuf buf) {
+        int start = buf.readerIndex();
+        int end = Math.min(buf.writerIndex(), start + MAX_HEAD_BYTES);
+        for (int i = start; i + 3 < end; i++) {
+            if (buf.getByte(i) == '\r' && buf.getByte(i + 1) == '\n' && buf.getByte(i + 2) == '\r' && buf.getByte(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 路径通配符：** 匹配任意字符，* 匹配一级路径内的任意字符，? 匹配一个字符
+     */
+    static Pattern compile(String pattern) {
+        StringBuilder regex = new StringBuilder(pattern.length() + 16);
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,20 @@
+package hsb.compile.springboot;
+
+import java.util.List;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 重启后预热的配置
+ *
+ * @param maxRequests   记录最近的多少个不同请求，也是每次预热最多发送的请求数
+ * @param parallelism   同时发送的请求数
+ * @param timeoutMs     每次预热的总时间，超过后不再等待
+ * @param beforeRelease true时预热完成（或者超时）后才恢复等待的连接，false时和恢复同时进行
+ * @param include       只记录匹配的路径，为空时记录所有路径。支持 * 、** 、? 通配符
+ * @param exclude       不记录匹配的路径
+ */
+public record WarmUpSettings(int maxRequests, int parallelism, long timeoutMs, boolean beforeRelease,
+                             List<String> include, List<String> exclude) {
+}
@@ -44,14 +44,24 @@ public class PortListPanel extends JPanel {
         List<PortPeer> portPeers = project.portPeers;
 
         for (PortPeer portPeer : portPeers) {
-            components.add(addProjectPortMapping(pid, portPeer));
+            components.add(addProjectPortMapping(project, portPeer));
         }
         group.put(pid, components);
 
         updateUI();
     }
 
+    public void updateProject(RunningSpringBootProject project) {
+        removeComponents(project.pid);
+        addProject(project);
+    }
+
     public void closeProject(int pid) {
+        removeComponents(pid);
+        updateUI();
+    }
+
+    private void removeComponents(int pid) {
         List<JComponent> components = group.remove(pid);
         if (components != null && !components.isEmpty()) {
             for (JComponent component : components) {
@@ -66,7 +76,8 @@ public class PortListPanel extends JPanel {
         return jLabel;
     }
 
-    private JComponent addProjectPortMapping(int pid, PortPeer portPeer) {
+    private JComponent addProjectPortMapping(RunningSpringBootProject project, PortPeer portPeer) {
+        int pid = project.pid;
         JPanel portInfo = new JPanel(new FlowLayout(FlowLayout.LEFT));
 
         PortField portField = new PortField(portPeer.proxyPort);
@@ -74,7 +85,14 @@ public class PortListPanel extends JPanel {
         portInfo.add(portField);
         portInfo.add(new JLabel("->"));
         portInfo.add(new JLabel("" + portPeer.realPort));
+        if (portPeer.lostTime != 0) {
+            portInfo.add(new JLabel("(端口未监听)"));
+        }
         JButton startListenerBtn = new JButton("开始");
+        if (project.isProxying(portPeer)) {
+            startListenerBtn.setText("监听中");
+            startListenerBtn.setEnabled(false);
+        }
 
         startListenerBtn.addActionListener(e -> {
 
@@ -83,6 +101,8 @@ public class PortListPanel extends JPanel {
             if (callback != null) {
                 portPeer.proxyPort = portField.getNumber();
                 callback.onClick(source, pid, portPeer);
+                //端口被占用的时候会自动换一个代理端口
+                portField.setNumber(portPeer.proxyPort);
             }
         });
         portInfo.add(startListenerBtn);
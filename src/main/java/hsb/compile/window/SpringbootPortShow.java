@@ -1,11 +1,15 @@
 package hsb.compile.window;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
 import com.intellij.ui.content.Content;
+import hsb.compile.service.AppCds;
 import hsb.compile.service.Listener;
 import hsb.compile.service.PortPeer;
+import hsb.compile.service.ProxySettings;
 import hsb.compile.service.RunningSpringBootProject;
 import hsb.compile.service.RunningSpringbootManager;
 import hsb.compile.ui.PortBtnClickCallback;
@@ -13,12 +17,17 @@ import hsb.compile.ui.PortListPanel;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import java.awt.*;
 
 /**
  * @author hsb
  * @date 2024/2/12 21:13
  */
 public class SpringbootPortShow implements ToolWindowFactory {
+
+    //启动步骤排行里每个项目显示的步骤数
+    private static final int STARTUP_STEP_LIMIT = 15;
+
     @Override
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         //todo 把识别到的端口号都展示出来，让用户手动开启监听
@@ -32,6 +41,11 @@ public class SpringbootPortShow implements ToolWindowFactory {
                 myJPanel.addProject(item);
             }
 
+            @Override
+            public void updateProject(RunningSpringBootProject item) {
+                myJPanel.updateProject(item);
+            }
+
             @Override
             public void closeProject(int pid) {
                 myJPanel.closeProject(pid);
@@ -43,7 +57,7 @@ public class SpringbootPortShow implements ToolWindowFactory {
 
                 try {
                     service.startNetty(pid,portPeer);
-                } catch (InterruptedException e) {
+                } catch (Exception e) {
                     throw new RuntimeException(e);
                 }finally {
                     //开启一组监听
@@ -56,7 +70,49 @@ public class SpringbootPortShow implements ToolWindowFactory {
             }
         });
 
-        Content content = toolWindow.getContentManager().getFactory().createContent(myJPanel, "", false);
+        ProxySettings settings = ApplicationManager.getApplication().getService(ProxySettings.class);
+        JCheckBox autoStart = new JCheckBox("发现web端口后自动开启代理", settings.isAutoStart());
+        autoStart.addActionListener(e -> settings.setAutoStart(autoStart.isSelected()));
+        //新开启的代理生效
+        JCheckBox responseCache = new JCheckBox("缓存GET请求的响应（重新编译后失效）", settings.isResponseCache());
+        responseCache.addActionListener(e -> settings.setResponseCache(responseCache.isSelected()));
+        JCheckBox warmUp = new JCheckBox("重启后预热最近的请求", settings.isWarmUp());
+        warmUp.addActionListener(e -> settings.setWarmUp(warmUp.isSelected()));
+        JCheckBox blueGreen = new JCheckBox("蓝绿模式（启动新实例后切换）", settings.isBlueGreen());
+        blueGreen.addActionListener(e -> settings.setBlueGreen(blueGreen.isSelected()));
+        JCheckBox gateway = new JCheckBox("网关模式（端口" + settings.getGatewayPort() + "访问所有项目）", settings.isGateway());
+        gateway.addActionListener(e -> {
+            settings.setGateway(gateway.isSelected());
+            service.refreshGateway();
+        });
+
+        //下次启动项目时生效
+        JCheckBox appCds = new JCheckBox("AppCDS加速启动", settings.isAppCds());
+        appCds.addActionListener(e -> settings.setAppCds(appCds.isSelected()));
+        JCheckBox stableModules = new JCheckBox("稳定的模块不参与重启", settings.isStableModulesInBaseClassLoader());
+        stableModules.addActionListener(e -> settings.setStableModulesInBaseClassLoader(stableModules.isSelected()));
+        JButton startupReport = new JButton("启动耗时对比");
+        startupReport.addActionListener(e -> Messages.showInfoMessage(project, AppCds.report(), "启动耗时对比"));
+
+        JButton startupSteps = new JButton("启动步骤排行");
+        startupSteps.addActionListener(e -> Messages.showInfoMessage(project, service.startupReport(STARTUP_STEP_LIMIT), "启动步骤排行"));
+
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(autoStart);
+        options.add(responseCache);
+        options.add(warmUp);
+        options.add(blueGreen);
+        options.add(gateway);
+        options.add(appCds);
+        options.add(stableModules);
+        options.add(startupReport);
+        options.add(startupSteps);
+
+        JPanel root = new JPanel(new BorderLayout());
+        root.add(options, BorderLayout.NORTH);
+        root.add(myJPanel, BorderLayout.CENTER);
+
+        Content content = toolWindow.getContentManager().getFactory().createContent(root, "", false);
         toolWindow.getContentManager().addContent(content);
     }
 }
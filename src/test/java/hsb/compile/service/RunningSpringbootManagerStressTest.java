@@ -0,0 +1,148 @@
+package hsb.compile.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.ServiceContainerUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 几百个假的进程同时注册、上报端口、刷新端口、关闭，同时还有线程在读注册表。
+ * 结束后注册表必须是空的，每个进程在界面监听器上先添加、只关闭一次。
+ * 端口分配和功能开关换成测试自己的实例，不自动开启代理，也不改动idea里保存的配置
+ */
+public class RunningSpringbootManagerStressTest extends BasePlatformTestCase {
+
+    private static final int PROCESSES = 400;
+    private static final int THREADS = 16;
+    private static final int FIRST_PID = 100_000;
+    private static final int FIRST_PORT = 20_000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainerUtil.replaceService(ApplicationManager.getApplication(), ProxyPortAllocator.class,
+                new ProxyPortAllocator(), getTestRootDisposable());
+        ServiceContainerUtil.replaceService(ApplicationManager.getApplication(), ProxySettings.class,
+                new ProxySettings(), getTestRootDisposable());
+    }
+
+    public void testConcurrentStartAndStop() throws Exception {
+        RunningSpringbootManager manager = new RunningSpringbootManager(getProject());
+        Disposer.register(getTestRootDisposable(), manager);
+        //监听器在EDT上调用，这里只在EDT上写
+        Map<Integer, List<String>> events = new ConcurrentHashMap<>();
+        manager.addListener(new Listener() {
+            @Override
+            public void addProject(RunningSpringBootProject item) {
+                events.computeIfAbsent(item.pid, k -> new ArrayList<>()).add("add");
+            }
+
+            @Override
+            public void updateProject(RunningSpringBootProject item) {
+                events.computeIfAbsent(item.pid, k -> new ArrayList<>()).add("update");
+            }
+
+            @Override
+            public void closeProject(int pid) {
+                events.computeIfAbsent(pid, k -> new ArrayList<>()).add("close");
+            }
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            int pid = FIRST_PID + i;
+            int port = FIRST_PORT + i;
+            futures.add(pool.submit(() -> {
+                start.await();
+                RunningSpringBootProject project = new RunningSpringBootProject(getProject(), null, pid,
+                        "stress-" + pid % 7, "demo.Application", List.of());
+                manager.addProject(project);
+                manager.addProjectPort(pid, port);
+                manager.refreshProjectPorts(pid, List.of(port, port + PROCESSES));
+                manager.refreshProjectPorts(pid, List.of(port));
+                manager.closeProject(pid);
+                //进程结束回调和项目关闭重复调用，关闭之后还有迟到的端口上报
+                manager.closeProject(pid);
+                manager.addProjectPort(pid, port);
+                manager.refreshProjectPorts(pid, List.of(port));
+                return null;
+            }));
+        }
+        //界面刷新同时在读
+        ExecutorService readerPool = Executors.newSingleThreadExecutor();
+        Future<?> reader = readerPool.submit(() -> {
+            start.await();
+            while (running.get()) {
+                for (int pid : manager.getAllPid()) {
+                    assertTrue("不存在的进程:" + pid, pid >= FIRST_PID && pid < FIRST_PID + PROCESSES);
+                }
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        running.set(false);
+        reader.get(10, TimeUnit.SECONDS);
+        pool.shutdown();
+        readerPool.shutdown();
+        PlatformTestUtil.dispatchAllEventsInIdeEventQueue();
+
+        assertEquals(0, manager.getAllPid().length);
+        assertEquals(PROCESSES, events.size());
+        for (Map.Entry<Integer, List<String>> entry : events.entrySet()) {
+            List<String> pidEvents = entry.getValue();
+            assertEquals("进程" + entry.getKey() + "的事件:" + pidEvents, "add", pidEvents.get(0));
+            assertEquals("进程" + entry.getKey() + "的事件:" + pidEvents, "close", pidEvents.get(pidEvents.size() - 1));
+            assertEquals("进程" + entry.getKey() + "的事件:" + pidEvents, 1, pidEvents.stream().filter("close"::equals).count());
+        }
+    }
+
+    public void testDisposeClosesEverything() throws Exception {
+        RunningSpringbootManager manager = new RunningSpringbootManager(getProject());
+        List<RunningSpringBootProject> projects = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            RunningSpringBootProject project = new RunningSpringBootProject(getProject(), null, FIRST_PID + i,
+                    "stress-dispose", "demo.Application", List.of());
+            projects.add(project);
+            manager.addProject(project);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (RunningSpringBootProject project : projects) {
+            futures.add(pool.submit(() -> manager.addProjectPort(project.pid, FIRST_PORT + project.pid - FIRST_PID)));
+        }
+        //IDE关闭和端口上报同时发生
+        Disposer.dispose(manager);
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        PlatformTestUtil.dispatchAllEventsInIdeEventQueue();
+
+        assertEquals(0, manager.getAllPid().length);
+        for (RunningSpringBootProject project : projects) {
+            assertTrue(project.stop.get());
+        }
+    }
+}
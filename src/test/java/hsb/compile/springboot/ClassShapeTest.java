@@ -0,0 +1,96 @@
+package hsb.compile.springboot;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 用javac编译修改前后的同一个类，比较结构：只改方法体的结构相同，改注解、常量、泛型签名、静态初始化、构造方法的结构不同
+ */
+public class ClassShapeTest {
+
+    private static final String SOURCE = """
+            import java.lang.annotation.*;
+            import java.util.*;
+
+            @Retention(RetentionPolicy.RUNTIME)
+            @interface Mapping {
+                String[] value() default {};
+                int order() default 1;
+            }
+
+            @Mapping("/demo")
+            public class Demo {
+                static final String CONSTANT = "a";
+                static final List<String> NAMES = new ArrayList<>(List.of("first"));
+                private String field = "init";
+
+                @Mapping(value = "/get", order = 2)
+                public String get(@Mapping("p") String p) {
+                    return "body" + p;
+                }
+
+                public Runnable task() {
+                    return () -> System.out.println("task");
+                }
+
+                public int choose(int x) {
+                    switch (x) {
+                        case 1: return 2;
+                        case 100: return 5;
+                        default: return 0;
+                    }
+                }
+            }
+            """;
+
+    private static ClassShape original;
+
+    @BeforeClass
+    public static void compileOriginal() throws Exception {
+        original = shape(SOURCE);
+    }
+
+    @Test
+    public void methodBodyOnly() throws Exception {
+        assertEquals(original, shape(SOURCE.replace("\"body\" + p", "\"changed\" + p + 42L")));
+        assertEquals(original, shape(SOURCE.replace("println(\"task\")", "println(\"other\" + 3.5)")));
+        assertEquals(original, shape(SOURCE.replace("case 100: return 5;", "case 100: return 6;")));
+    }
+
+    @Test
+    public void annotationValues() throws Exception {
+        assertNotEquals(original, shape(SOURCE.replace("\"/get\"", "\"/other\"")));
+        assertNotEquals(original, shape(SOURCE.replace("order = 2", "order = 3")));
+        assertNotEquals(original, shape(SOURCE.replace("@Mapping(\"p\")", "@Mapping(\"q\")")));
+        assertNotEquals(original, shape(SOURCE.replace("@Mapping(\"/demo\")", "@Mapping(\"/other\")")));
+        assertNotEquals(original, shape(SOURCE.replace("int order() default 1;", "int order() default 2;")));
+    }
+
+    @Test
+    public void constantsSignaturesAndInitializers() throws Exception {
+        assertNotEquals(original, shape(SOURCE.replace("CONSTANT = \"a\"", "CONSTANT = \"b\"")));
+        assertNotEquals(original, shape(SOURCE.replace("List.of(\"first\")", "List.of(\"second\")")));
+        assertNotEquals(original, shape(SOURCE.replace("field = \"init\"", "field = \"other\"")));
+        assertNotEquals(original, shape(SOURCE.replace("List<String> NAMES = new ArrayList<>", "List<CharSequence> NAMES = new ArrayList<CharSequence>")));
+    }
+
+    private static ClassShape shape(String source) throws Exception {
+        Path dir = Files.createTempDirectory("class-shape");
+        Path file = dir.resolve("Demo.java");
+        Files.writeString(file, source);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-d", dir.toString(), file.toString()));
+        return ClassShape.read(Files.readAllBytes(dir.resolve("Demo.class")));
+    }
+}
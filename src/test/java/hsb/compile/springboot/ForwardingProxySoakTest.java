@@ -0,0 +1,132 @@
+package hsb.compile.springboot;
+
+import hsb.compile.benchmark.EchoBackend;
+import hsb.compile.benchmark.NoChangeCompileCoordinator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 几千对客户端/后端连接经过代理打开又关闭，客户端有正常关闭的，也有发完数据直接RST的。
+ * 结束后代理不能再持有任何连接：两端的channel都只用弱引用记录，GC之后必须全部被回收。
+ * backendChannels会自己移除关闭的channel，只检查它发现不了代理在别处（比如映射表、等待队列）留下的引用
+ */
+public class ForwardingProxySoakTest {
+
+    private static final int PAIRS = 4000;
+    private static final int THREADS = 32;
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+
+    //代理这边的两端连接，强引用会让泄漏检查失效
+    private final Set<WeakReference<Channel>> channels = ConcurrentHashMap.newKeySet();
+    private final Set<ChannelId> seenClients = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean stop = new AtomicBoolean(false);
+    private EchoBackend backend;
+    private SpringBootPortForwardingProxy proxy;
+    private int proxyPort;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new EchoBackend();
+        int backendPort = backend.start();
+        proxyPort = EchoBackend.freePort();
+        proxy = new SpringBootPortForwardingProxy(proxyPort, "127.0.0.1", backendPort, new NoChangeCompileCoordinator(), stop);
+        proxy.run();
+    }
+
+    @After
+    public void tearDown() {
+        stop.set(true);
+        proxy.close();
+        backend.close();
+    }
+
+    @Test
+    public void connectionsAreCollectedAfterClose() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                exchange(index);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(PAIRS, seenClients.size());
+        assertEquals(PAIRS * 2, channels.size());
+        awaitTrue("后端连接没有全部关闭", () -> proxy.backendChannels.isEmpty());
+        assertTrue(proxy.pausedClients.isEmpty());
+        awaitTrue("还有连接没有被回收", () -> {
+            System.gc();
+            channels.removeIf(reference -> reference.get() == null);
+            return channels.isEmpty();
+        });
+    }
+
+    private void exchange(int index) throws IOException {
+        byte[] request = ("request-" + index).getBytes();
+        Socket socket = new Socket("127.0.0.1", proxyPort);
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(request);
+            out.flush();
+            byte[] response = in.readNBytes(request.length);
+            assertArrayEquals(request, response);
+            //收到回复说明后端连接已经建立，这时它一定在backendChannels里
+            for (Channel backendChannel : proxy.backendChannels) {
+                SpringBootPortForwardingProxy.OutboundHandler handler = backendChannel.pipeline().get(SpringBootPortForwardingProxy.OutboundHandler.class);
+                if (handler != null && seenClients.add(handler.clientChannel.id())) {
+                    channels.add(new WeakReference<>(handler.clientChannel));
+                    channels.add(new WeakReference<>(backendChannel));
+                }
+            }
+            if (index % 2 == 1) {
+                //RST关闭，代理收到的是异常而不是正常的EOF
+                socket.setSoLinger(true, 0);
+                out.write(request);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void awaitTrue(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_TIMEOUT_MS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(message, System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
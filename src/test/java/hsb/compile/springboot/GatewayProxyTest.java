@@ -0,0 +1,199 @@
+package hsb.compile.springboot;
+
+import hsb.compile.FileModifyState;
+import hsb.compile.benchmark.EchoBackend;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 网关在一个客户端连接上连续转发多个请求，必须准确找到每个响应的结束位置：
+ * 100 Continue之后还有真正的响应，chunked响应在trailer之后才结束。找错了的话后面的响应会被当成多余的数据丢掉，客户端读取超时。
+ * 请求和插件里一样经过 网关 -> 代理 -> 后端，需要编译时网关换一个新的代理连接，由代理等待编译完成
+ */
+public class GatewayProxyTest {
+
+    private static final String CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n"
+            + "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+    private static final String PROCESSING = "HTTP/1.1 102 Processing\r\n\r\n"
+            + "HTTP/1.1 103 Early Hints\r\nLink: </style.css>; rel=preload\r\n\r\n"
+            + "HTTP/1.1 204 No Content\r\n\r\n";
+    private static final String TRAILERS = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nTrailer: X-Checksum\r\n\r\n"
+            + "3\r\nabc\r\n0\r\nX-Checksum: 1\r\n\r\n";
+    private static final Map<String, String> RESPONSES = Map.of(
+            "/continue", CONTINUE,
+            "/processing", PROCESSING,
+            "/trailers", TRAILERS);
+
+    private final AtomicBoolean stop = new AtomicBoolean(false);
+    private final AtomicInteger backendConnections = new AtomicInteger();
+    private ServerSocket backend;
+    private ManualCompileCoordinator coordinator;
+    private SpringBootPortForwardingProxy proxy;
+    private GatewayProxy gateway;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new ServerSocket(0);
+        Thread thread = new Thread(this::serve, "gateway-test-backend");
+        thread.setDaemon(true);
+        thread.start();
+        coordinator = new ManualCompileCoordinator();
+        proxy = new SpringBootPortForwardingProxy(EchoBackend.freePort(), "127.0.0.1", backend.getLocalPort(), coordinator, stop);
+        coordinator.proxy = proxy;
+        proxy.run();
+        gateway = new GatewayProxy(EchoBackend.freePort());
+        gateway.setRoutes(GatewayRoutes.builder()
+                .fallback(new GatewayRoutes.Route("demo", proxy.getLocalPort(), proxy))
+                .build());
+        gateway.run();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        stop.set(true);
+        gateway.close();
+        proxy.close();
+        backend.close();
+    }
+
+    @Test
+    public void interimResponsesAndTrailersOnOneConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", gateway.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            for (String path : new String[]{"/continue", "/trailers", "/processing", "/continue", "/trailers"}) {
+                exchange(socket, path);
+            }
+        }
+        assertEquals(1, backendConnections.get());
+        assertEquals(0, coordinator.compiles);
+    }
+
+    @Test
+    public void reconnectsThroughProxyWhenGating() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", gateway.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            exchange(socket, "/continue");
+            //保存了文件，网关不能继续用旧的代理连接，新连接由代理等待编译完成后再连接后端
+            coordinator.save();
+            assertTrue(proxy.isGating());
+            exchange(socket, "/trailers");
+            assertEquals(1, coordinator.compiles);
+            //编译完成后不再需要新连接
+            exchange(socket, "/continue");
+        }
+        assertEquals(2, backendConnections.get());
+    }
+
+    private static void exchange(Socket socket, String path) throws IOException {
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        String expected = RESPONSES.get(path);
+        byte[] response = socket.getInputStream().readNBytes(expected.length());
+        assertEquals(path, expected, new String(response, StandardCharsets.ISO_8859_1));
+    }
+
+    private void serve() {
+        while (!backend.isClosed()) {
+            try {
+                Socket socket = backend.accept();
+                backendConnections.incrementAndGet();
+                Thread thread = new Thread(() -> respond(socket), "gateway-test-backend-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                //测试结束关闭
+            }
+        }
+    }
+
+    private static void respond(Socket socket) {
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String head;
+            while ((head = readHead(in)) != null) {
+                String path = head.split(" ")[1];
+                out.write(RESPONSES.get(path).getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+        } catch (IOException e) {
+            //代理关闭了连接
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.write(b);
+            String text = head.toString(StandardCharsets.ISO_8859_1);
+            if (text.endsWith("\r\n\r\n")) {
+                return text;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 保存文件由测试控制，编译立即完成，后端不重启
+     */
+    private static class ManualCompileCoordinator implements CompileCoordinator {
+
+        private final FileModifyState fileState = new FileModifyState();
+        private volatile SpringBootPortForwardingProxy proxy;
+        private volatile int compiles = 0;
+
+        void save() {
+            fileState.fileTreeChange();
+        }
+
+        @Override
+        public int hasFileModify() {
+            return fileState.hasFileModify(() -> false);
+        }
+
+        @Override
+        public void changeState(int newState) {
+            fileState.changeState(newState);
+        }
+
+        @Override
+        public long generation() {
+            return fileState.generation();
+        }
+
+        @Override
+        public void codeLive() {
+            fileState.codeLive();
+        }
+
+        @Override
+        public void make(Runnable afterCompile) {
+            fileState.compiled();
+            compiles++;
+            //代理在持有锁的时候调用，连接放入等待队列之后才能恢复
+            CompletableFuture.runAsync(() -> {
+                afterCompile.run();
+                proxy.resumeWithoutRestart();
+            });
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package hsb.compile.springboot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ */
+public class GatewayRoutesTest {
+
+    private final GatewayRoutes.Route order = new GatewayRoutes.Route("order-service", 18001, null);
+    private final GatewayRoutes.Route orderAdmin = new GatewayRoutes.Route("order-admin", 18002, null);
+    private final GatewayRoutes.Route user = new GatewayRoutes.Route("user", 18003, null);
+
+    private final GatewayRoutes routes = GatewayRoutes.builder()
+            .host(GatewayRoutes.hostName("Order Service"), order)
+            .host(GatewayRoutes.hostName("user"), user)
+            .prefix("/api/order", order)
+            .prefix("/api/order/admin", orderAdmin)
+            .prefix("/api/user/", user)
+            .build();
+
+    @Test
+    public void hostWinsOverPath() {
+        assertSame(user, routes.match("user.localhost", "/api/order/1"));
+        assertSame(user, routes.match("USER.localhost:8000", "/"));
+        assertSame(order, routes.match("order-service.localhost:8000", "/api/user"));
+    }
+
+    @Test
+    public void unknownHostFallsBackToPath() {
+        assertSame(order, routes.match("localhost:8000", "/api/order"));
+        assertSame(order, routes.match(null, "/api/order"));
+        //IPv6地址里的冒号不是端口
+        assertSame(user, routes.match("[::1]:8000", "/api/user/1"));
+        assertSame(user, routes.match("[::1]", "/api/user"));
+    }
+
+    @Test
+    public void longestSegmentPrefix() {
+        assertSame(order, routes.match(null, "/api/order/1"));
+        assertSame(order, routes.match(null, "/api/order/"));
+        assertSame(orderAdmin, routes.match(null, "/api/order/admin"));
+        assertSame(orderAdmin, routes.match(null, "/api/order/admin/users/2"));
+        //按段匹配，不是字符串前缀
+        assertNull(routes.match(null, "/api/orders"));
+        assertSame(order, routes.match(null, "/api/order/administrator"));
+        assertSame(order, routes.match(null, "//api//order"));
+    }
+
+    @Test
+    public void queryIsIgnored() {
+        assertSame(order, routes.match(null, "/api/order?next=/api/order/admin"));
+        assertSame(orderAdmin, routes.match(null, "/api/order/admin?x=1"));
+        assertNull(routes.match(null, "/api?p=/api/order"));
+    }
+
+    @Test
+    public void fallbackAndRootPrefix() {
+        GatewayRoutes withFallback = GatewayRoutes.builder()
+                .prefix("/api/order", order)
+                .fallback(user)
+                .build();
+        assertSame(order, withFallback.match(null, "/api/order/1"));
+        assertSame(user, withFallback.match(null, "/index.html"));
+        assertSame(user, withFallback.match("unknown.localhost", "/"));
+
+        GatewayRoutes withRoot = GatewayRoutes.builder()
+                .prefix("/", user)
+                .prefix("/api/order", order)
+                .fallback(orderAdmin)
+                .build();
+        //根路径前缀比默认路由优先
+        assertSame(user, withRoot.match(null, "/index.html"));
+        assertSame(order, withRoot.match(null, "/api/order"));
+
+        assertNull(GatewayRoutes.EMPTY.match("order-service.localhost", "/api/order"));
+    }
+
+    @Test
+    public void hostName() {
+        assertEquals("order-service.localhost", GatewayRoutes.hostName("Order Service"));
+        assertEquals("demo-application.localhost", GatewayRoutes.hostName("--Demo.Application--"));
+        assertEquals("app.localhost", GatewayRoutes.hostName("订单"));
+    }
+}
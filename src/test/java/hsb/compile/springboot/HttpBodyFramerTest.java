@@ -0,0 +1,101 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ */
+public class HttpBodyFramerTest {
+
+    private static final String NEXT = "GET /next HTTP/1.1\r\n\r\n";
+
+    @Test
+    public void noBody() {
+        assertTrue(HttpBodyFramer.none().isDone());
+        assertTrue(HttpBodyFramer.length(0).isDone());
+    }
+
+    @Test
+    public void contentLength() {
+        String body = "hello world";
+        assertEquals(body.length(), end(HttpBodyFramer.length(body.length()), body + NEXT));
+        HttpBodyFramer framer = HttpBodyFramer.length(body.length());
+        assertEquals(-1, endInPieces(framer, body.substring(0, 5)));
+        assertEquals(body.length() - 5, endInPieces(framer, body.substring(5) + NEXT));
+    }
+
+    @Test
+    public void chunked() {
+        String body = "5\r\nhello\r\n1;name=value\r\n \r\n6\r\nworld!\r\n0\r\n\r\n";
+        assertEquals(body.length(), end(HttpBodyFramer.chunked(), body + NEXT));
+        //大写的十六进制长度，数据里有\r\n
+        String hex = "A\r\n0123\r\n6789\r\n0\r\n\r\n";
+        assertEquals(hex.length(), end(HttpBodyFramer.chunked(), hex + NEXT));
+    }
+
+    @Test
+    public void chunkedWithTrailers() {
+        String body = "3\r\nabc\r\n0\r\nX-Checksum: 1\r\nX-Other: 2\r\n\r\n";
+        assertEquals(body.length(), end(HttpBodyFramer.chunked(), body + NEXT));
+    }
+
+    @Test
+    public void chunkedByteByByte() {
+        String body = "3\r\nabc\r\n0\r\nX-Checksum: 1\r\n\r\n";
+        HttpBodyFramer framer = HttpBodyFramer.chunked();
+        for (int i = 0; i < body.length() - 1; i++) {
+            assertEquals(-1, endInPieces(framer, body.substring(i, i + 1)));
+        }
+        assertEquals(1, endInPieces(framer, body.substring(body.length() - 1) + NEXT));
+    }
+
+    @Test
+    public void chunkedNotDoneBeforeFinalCrlf() {
+        HttpBodyFramer framer = HttpBodyFramer.chunked();
+        //最后一个chunk之后还没有收到空行
+        assertEquals(-1, endInPieces(framer, "3\r\nabc\r\n0\r\nX-Checksum: 1\r\n"));
+        assertEquals(2, endInPieces(framer, "\r\n"));
+    }
+
+    @Test
+    public void untilClose() {
+        HttpBodyFramer framer = HttpBodyFramer.untilClose();
+        assertEquals(-1, endInPieces(framer, "anything" + NEXT));
+        assertFalse(framer.isDone());
+    }
+
+    /**
+     * 一次给完整的数据，返回消息体结束的位置
+     */
+    private static int end(HttpBodyFramer framer, String data) {
+        int end = endInPieces(framer, data);
+        assertTrue(framer.isDone());
+        return end;
+    }
+
+    /**
+     * @return 消息体在这段数据里结束的位置，还没有结束返回-1
+     */
+    private static int endInPieces(HttpBodyFramer framer, String data) {
+        ByteBuf buf = Unpooled.copiedBuffer(data, StandardCharsets.ISO_8859_1);
+        try {
+            //前面放一些不属于这段数据的字节，检查位置计算
+            int from = 7;
+            ByteBuf padded = Unpooled.buffer().writeZero(from).writeBytes(buf);
+            int end = framer.consume(padded, from, padded.writerIndex());
+            padded.release();
+            return framer.isDone() ? end - from : -1;
+        } finally {
+            buf.release();
+        }
+    }
+}
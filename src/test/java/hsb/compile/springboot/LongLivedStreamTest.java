@@ -0,0 +1,215 @@
+package hsb.compile.springboot;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ * <p>
+ * 后端的数据按一个字节一次传入，和按整段传入的结果必须一样
+ */
+public class LongLivedStreamTest {
+
+    private static final String SSE_REQUEST = "GET /events HTTP/1.1\r\nHost: localhost\r\nlast-event-id: 0\r\nAccept: text/event-stream\r\n\r\n";
+    private static final String SSE_HEAD = "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n\r\n";
+    private static final String CHUNKED_SSE_HEAD = "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nTransfer-Encoding: chunked\r\n\r\n";
+    private static final String WS_REQUEST = "GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n\r\n";
+    private static final String WS_HEAD = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n\r\n";
+
+    private static final byte[] TEXT_FRAME = {(byte) 0x81, 0x02, 'h', 'i'};
+    //1000 Normal Closure
+    private static final byte[] CLOSE_FRAME = {(byte) 0x88, 0x02, 0x03, (byte) 0xE8};
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    @Test
+    public void sseByteByByte() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        String events = "id: 1\ndata: a\n\nid:2\r\ndata: b\r\n\r\n";
+        assertEquals(events, byteByByte(stream, events));
+        assertTrue(stream.canResume());
+        assertTrue(resumeRequest(stream).contains("\r\nLast-Event-ID: 2\r\n"));
+    }
+
+    @Test
+    public void chunkedSseByteByByte() {
+        LongLivedStream stream = open(SSE_REQUEST, CHUNKED_SSE_HEAD);
+        String chunks = chunk("id: 1\ndata: a\n\n") + chunk("id: 2\ndata: b\n\n");
+        assertEquals(chunks, byteByByte(stream, chunks));
+        assertTrue(stream.canResume());
+        assertFalse(stream.isFinished());
+        assertTrue(resumeRequest(stream).contains("\r\nLast-Event-ID: 2\r\n"));
+    }
+
+    @Test
+    public void endChunkWithheldWhileDraining() {
+        LongLivedStream stream = open(SSE_REQUEST, CHUNKED_SSE_HEAD);
+        byteByByte(stream, chunk("id: 1\ndata: a\n\n"));
+        draining.set(true);
+        assertEquals("", byteByByte(stream, "0\r\n\r\n"));
+        assertFalse(stream.isFinished());
+        assertTrue(stream.canResume());
+    }
+
+    @Test
+    public void endChunkForwardedWhenNotDraining() {
+        LongLivedStream stream = open(SSE_REQUEST, CHUNKED_SSE_HEAD);
+        byteByByte(stream, chunk("id: 1\ndata: a\n\n"));
+        assertEquals("0\r\n\r\n", byteByByte(stream, "0\r\n\r\n"));
+        assertTrue(stream.isFinished());
+    }
+
+    @Test
+    public void closeFrameWithheldWhileDraining() {
+        LongLivedStream stream = open(WS_REQUEST, WS_HEAD);
+        assertEquals(LongLivedStream.Kind.WEBSOCKET, stream.kind);
+        assertEquals(new String(TEXT_FRAME, StandardCharsets.ISO_8859_1), byteByByte(stream, TEXT_FRAME));
+        draining.set(true);
+        assertEquals("", byteByByte(stream, CLOSE_FRAME));
+        assertTrue(stream.canResume());
+        //数据帧照常转发
+        assertEquals(new String(TEXT_FRAME, StandardCharsets.ISO_8859_1), byteByByte(stream, TEXT_FRAME));
+    }
+
+    @Test
+    public void closeFrameForwardedWhenNotDraining() {
+        LongLivedStream stream = open(WS_REQUEST, WS_HEAD);
+        assertEquals(new String(CLOSE_FRAME, StandardCharsets.ISO_8859_1), byteByByte(stream, CLOSE_FRAME));
+    }
+
+    @Test
+    public void cannotResumeInsideSseEvent() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        byteByByte(stream, "id: 1\ndata");
+        assertFalse(stream.canResume());
+        byteByByte(stream, ": a\n");
+        assertFalse(stream.canResume());
+        byteByByte(stream, "\n");
+        assertTrue(stream.canResume());
+    }
+
+    @Test
+    public void cannotResumeInsideChunk() {
+        LongLivedStream stream = open(SSE_REQUEST, CHUNKED_SSE_HEAD);
+        String event = "data: a\n\n";
+        String chunk = chunk(event);
+        //块大小行读了一半
+        byteByByte(stream, chunk.substring(0, 1));
+        assertFalse(stream.canResume());
+        //事件完整了，但是块后面的\r\n还没有读到
+        byteByByte(stream, chunk.substring(1, chunk.length() - 2));
+        assertFalse(stream.canResume());
+        byteByByte(stream, chunk.substring(chunk.length() - 2));
+        assertTrue(stream.canResume());
+    }
+
+    @Test
+    public void cannotResumeInsideWebSocketFrame() {
+        LongLivedStream stream = open(WS_REQUEST, WS_HEAD);
+        for (int i = 0; i < TEXT_FRAME.length - 1; i++) {
+            byteByByte(stream, new byte[]{TEXT_FRAME[i]});
+            assertFalse("读到第" + (i + 1) + "个字节", stream.canResume());
+        }
+        byteByByte(stream, new byte[]{TEXT_FRAME[TEXT_FRAME.length - 1]});
+        assertTrue(stream.canResume());
+    }
+
+    @Test
+    public void cannotResumeBeforeHead() {
+        LongLivedStream stream = LongLivedStream.detect(bytes(SSE_REQUEST), bytes(SSE_HEAD), draining::get);
+        assertNotNull(stream);
+        assertFalse(stream.canResume());
+    }
+
+    @Test
+    public void resumeRequestReplacesLastEventId() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        byteByByte(stream, "id: 5\ndata: a\n\n");
+        String request = resumeRequest(stream);
+        assertTrue(request.startsWith("GET /events HTTP/1.1\r\n"));
+        assertTrue(request.contains("\r\nHost: localhost\r\n"));
+        assertTrue(request.contains("\r\nAccept: text/event-stream\r\n"));
+        assertFalse(request.contains("last-event-id: 0"));
+        assertTrue(request.contains("\r\nLast-Event-ID: 5\r\n"));
+        assertTrue(request.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void resumeRequestWithoutEventIdDropsOldValue() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        byteByByte(stream, "data: a\n\n");
+        String request = resumeRequest(stream);
+        assertFalse(request.toLowerCase().contains("last-event-id"));
+        assertTrue(request.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void resumedHeadIsNotForwarded() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        byteByByte(stream, "id: 1\ndata: a\n\n");
+        resumeRequest(stream);
+        assertEquals("", byteByByte(stream, SSE_HEAD));
+        assertFalse(stream.resumeFailed());
+        assertEquals("id: 2\ndata: b\n\n", byteByByte(stream, "id: 2\ndata: b\n\n"));
+    }
+
+    @Test
+    public void resumeFailsWhenNewResponseDiffers() {
+        LongLivedStream stream = open(SSE_REQUEST, SSE_HEAD);
+        byteByByte(stream, "data: a\n\n");
+        resumeRequest(stream);
+        byteByByte(stream, CHUNKED_SSE_HEAD);
+        assertTrue(stream.resumeFailed());
+    }
+
+    /**
+     * 识别长连接，并且转发第一次的响应头
+     */
+    private LongLivedStream open(String request, String responseHead) {
+        LongLivedStream stream = LongLivedStream.detect(bytes(request), bytes(responseHead), draining::get);
+        assertNotNull(stream);
+        assertEquals(responseHead, byteByByte(stream, responseHead));
+        return stream;
+    }
+
+    private static String byteByByte(LongLivedStream stream, String data) {
+        return byteByByte(stream, data.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String byteByByte(LongLivedStream stream, byte[] data) {
+        StringBuilder forwarded = new StringBuilder();
+        for (byte b : data) {
+            ByteBuf out = stream.fromBackend(new byte[]{b});
+            forwarded.append(out.toString(StandardCharsets.ISO_8859_1));
+            out.release();
+        }
+        return forwarded.toString();
+    }
+
+    private static String resumeRequest(LongLivedStream stream) {
+        ByteBuf request = stream.resumeRequest();
+        try {
+            return request.toString(StandardCharsets.ISO_8859_1);
+        } finally {
+            request.release();
+        }
+    }
+
+    private static String chunk(String data) {
+        return Integer.toHexString(data.length()) + "\r\n" + data + "\r\n";
+    }
+
+    private static ByteBuf bytes(String data) {
+        return Unpooled.copiedBuffer(data, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,43 @@
+package hsb.compile.springboot;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author hsb
+ * @date 2026/10/19
+ */
+public class StaticResourceConfigTest {
+
+    @Test
+    public void defaultMapping() {
+        StaticResourceConfig config = StaticResourceConfig.of("", "/**",
+                List.of("classpath:/META-INF/resources/", "classpath:/static/"));
+        assertEquals(List.of("META-INF/resources/", "static/"), config.locations());
+        assertEquals("js/app.js", config.relativePath("/js/app.js"));
+    }
+
+    @Test
+    public void contextPathAndPrefix() {
+        StaticResourceConfig config = StaticResourceConfig.of("/app/", "/assets/**", List.of("classpath:web"));
+        assertEquals(List.of("web/"), config.locations());
+        assertEquals("js/app.js", config.relativePath("/app/assets/js/app.js"));
+        assertNull(config.relativePath("/assets/js/app.js"));
+        assertNull(config.relativePath("/app/js/app.js"));
+        assertNull(config.relativePath("/application/assets/js/app.js"));
+    }
+
+    @Test
+    public void unsupportedConfig() {
+        //不是 前缀/** 的形式
+        assertNull(StaticResourceConfig.of("", "/*.js", List.of("classpath:/static/")));
+        assertNull(StaticResourceConfig.of("", "/{version}/**", List.of("classpath:/static/")));
+        //没有classpath里的位置，或者关闭了静态资源映射
+        assertNull(StaticResourceConfig.of("", "/**", List.of("file:/var/www/")));
+        assertNull(StaticResourceConfig.of("", "/**", List.of()));
+    }
+}